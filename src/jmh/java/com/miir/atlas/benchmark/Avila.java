@@ -0,0 +1,77 @@
+package com.miir.atlas.benchmark;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.miir.atlas.world.gen.biome.BiomeEntry;
+import com.miir.atlas.world.gen.biome.source.AtlasBiomeSource;
+import com.miir.atlas.world.gen.chunk.AtlasChunkGenerator;
+import net.minecraft.Bootstrap;
+import net.minecraft.SharedConstants;
+import net.minecraft.registry.entry.RegistryEntry;
+import net.minecraft.world.biome.Biome;
+import net.minecraft.world.biome.BiomeEffects;
+import net.minecraft.world.biome.GenerationSettings;
+import net.minecraft.world.biome.SpawnSettings;
+import net.minecraft.world.gen.chunk.ChunkGeneratorSettings;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * the example avila dimension, set up without a server. every biome is a bare biome of its own, since benchmarks only
+ * care which entry a pixel resolves to.
+ */
+final class Avila {
+    static final Path MAPS = Path.of(System.getProperty("atlas.example", "example/avila/data/avila/map"));
+    private static boolean bootstrapped;
+
+    private Avila() {}
+
+    static synchronized void bootstrap() {
+        if (!bootstrapped) {
+            SharedConstants.createGameVersion();
+            Bootstrap.initialize();
+            bootstrapped = true;
+        }
+    }
+
+    static byte[] read(String map) throws IOException {
+        return Files.readAllBytes(MAPS.resolve(map + ".png"));
+    }
+
+    static AtlasBiomeSource createBiomeSource(float horizontalScale) throws IOException {
+        List<BiomeEntry> entries = new ArrayList<>();
+        JsonObject dimension = JsonParser.parseString(Files.readString(MAPS.resolveSibling("dimension").resolve("avila.json"))).getAsJsonObject();
+        for (JsonElement element : dimension.getAsJsonObject("generator").getAsJsonObject("biome_source").getAsJsonArray("biomes")) {
+            entries.add(new BiomeEntry(Optional.of(RegistryEntry.of(createBiome())), Optional.empty(), element.getAsJsonObject().get("color").getAsInt()));
+        }
+        // the constructor is only meant for the codec, hence the subclass
+        AtlasBiomeSource biomeSource = new AtlasBiomeSource("avila:map/biomes", entries, Optional.of(RegistryEntry.of(createBiome())), horizontalScale) {};
+        biomeSource.getImage().initialize(read("biomes"), Files.createTempDirectory("atlas-jmh"));
+        return biomeSource;
+    }
+
+    static AtlasChunkGenerator createGenerator(float horizontalScale) throws IOException {
+        AtlasChunkGenerator generator = new AtlasChunkGenerator("avila:map/heightmap", "", "",
+                createBiomeSource(horizontalScale), RegistryEntry.of(ChunkGeneratorSettings.createMissingSettings()),
+                6, Integer.MIN_VALUE, 1, horizontalScale, List.of());
+        generator.getHeightmap().initialize(read("heightmap"), Files.createTempDirectory("atlas-jmh"));
+        return generator;
+    }
+
+    static Biome createBiome() {
+        return new Biome.Builder()
+                .precipitation(Biome.Precipitation.NONE)
+                .temperature(0.5f)
+                .downfall(0.5f)
+                .effects(new BiomeEffects.Builder().skyColor(0).fogColor(0).waterColor(0).waterFogColor(0).build())
+                .spawnSettings(SpawnSettings.INSTANCE)
+                .generationSettings(GenerationSettings.INSTANCE)
+                .build();
+    }
+}
@@ -0,0 +1,56 @@
+package com.miir.atlas.benchmark;
+
+import com.miir.atlas.world.gen.biome.source.AtlasBiomeSource;
+import net.minecraft.registry.entry.RegistryEntry;
+import net.minecraft.world.biome.Biome;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * biome lookups against the avila biome map, per biome cell and for the 4x4 cells of a chunk section.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class BiomeBenchmark {
+    private AtlasBiomeSource biomeSource;
+    private int width;
+    private int height;
+    private int seed = 1;
+
+    @Setup
+    public void setup() throws IOException {
+        Avila.bootstrap();
+        this.biomeSource = Avila.createBiomeSource(1);
+        // in biome coordinates, a quarter of the map's size
+        this.width = this.biomeSource.getImage().getWidth() >> 2;
+        this.height = this.biomeSource.getImage().getHeight() >> 2;
+    }
+
+    private int next(int bound) {
+        this.seed = this.seed * 1664525 + 1013904223;
+        return Math.floorMod(this.seed >> 8, bound) - bound / 2;
+    }
+
+    @Benchmark
+    public RegistryEntry<Biome> getBiome() {
+        return this.biomeSource.getBiome(this.next(this.width), 0, this.next(this.height), null);
+    }
+
+    @Benchmark
+    public void getChunkBiomes(Blackhole blackhole) {
+        int biomeX = this.next(this.width) & ~3;
+        int biomeZ = this.next(this.height) & ~3;
+        for (int z = 0; z < 4; z++) {
+            for (int x = 0; x < 4; x++) {
+                blackhole.consume(this.biomeSource.getBiome(biomeX + x, 0, biomeZ + z, null));
+            }
+        }
+    }
+}
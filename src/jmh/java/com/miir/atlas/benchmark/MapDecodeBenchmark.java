@@ -0,0 +1,63 @@
+package com.miir.atlas.benchmark;
+
+import com.miir.atlas.Atlas;
+import com.miir.atlas.world.gen.NamespacedMapImage;
+import com.miir.atlas.world.gen.raster.MapRaster;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * decoding the avila maps at startup. mapped storage converts the map on the first call and afterwards only reopens
+ * the converted file, as a server does on every start after the first. heap storage does the same with its saved
+ * raster when {@code heapCache} is on.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class MapDecodeBenchmark {
+    @Param({"heightmap", "biomes"})
+    public String map;
+    @Param({"HEAP", "MAPPED", "LAZY"})
+    public NamespacedMapImage.Storage storage;
+    @Param({"false", "true"})
+    public boolean heapCache;
+
+    private byte[] source;
+    private Path world;
+
+    @Setup
+    public void setup() throws IOException {
+        Atlas.CONFIG.storage = this.storage;
+        Atlas.CONFIG.heapCache = this.heapCache;
+        this.source = Avila.read(this.map);
+        this.world = Files.createTempDirectory("atlas-jmh");
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        try (Stream<Path> files = Files.walk(this.world)) {
+            for (Path file : files.sorted(Comparator.reverseOrder()).toList()) {
+                Files.delete(file);
+            }
+        }
+    }
+
+    @Benchmark
+    public MapRaster initialize() throws IOException {
+        NamespacedMapImage image = new NamespacedMapImage("avila:map/" + this.map, this.map.equals("biomes") ? NamespacedMapImage.Type.COLOR : NamespacedMapImage.Type.GRAYSCALE);
+        image.initialize(this.source, this.world);
+        MapRaster raster = image.getRaster();
+        // otherwise the next call would reuse the shared raster instead of decoding
+        image.release();
+        return raster;
+    }
+}
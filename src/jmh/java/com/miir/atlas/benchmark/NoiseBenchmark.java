@@ -0,0 +1,65 @@
+package com.miir.atlas.benchmark;
+
+import com.miir.atlas.world.gen.chunk.AtlasChunkGenerator;
+import com.mojang.serialization.Lifecycle;
+import net.minecraft.registry.Registry;
+import net.minecraft.registry.RegistryKeys;
+import net.minecraft.registry.SimpleRegistry;
+import net.minecraft.util.math.ChunkPos;
+import net.minecraft.world.HeightLimitView;
+import net.minecraft.world.biome.Biome;
+import net.minecraft.world.biome.BiomeKeys;
+import net.minecraft.world.chunk.Chunk;
+import net.minecraft.world.chunk.ProtoChunk;
+import net.minecraft.world.chunk.UpgradeData;
+import net.minecraft.world.gen.chunk.Blender;
+import net.minecraft.world.gen.chunk.GenerationShapeConfig;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * filling fresh in-memory chunks with terrain, walking the avila map chunk by chunk. the map holds far more chunks
+ * than the column cache, so every chunk samples the heightmap again.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class NoiseBenchmark {
+    private AtlasChunkGenerator generator;
+    private Registry<Biome> biomes;
+    private HeightLimitView world;
+    private int chunksX;
+    private int chunksZ;
+    private int next;
+    private Chunk chunk;
+
+    @Setup
+    public void setup() throws IOException {
+        Avila.bootstrap();
+        this.generator = Avila.createGenerator(1);
+        SimpleRegistry<Biome> biomes = new SimpleRegistry<>(RegistryKeys.BIOME, Lifecycle.stable());
+        Registry.register(biomes, BiomeKeys.PLAINS, Avila.createBiome());
+        this.biomes = biomes;
+        GenerationShapeConfig shape = this.generator.getSettings().value().generationShapeConfig();
+        this.world = HeightLimitView.create(shape.minimumY(), shape.height());
+        this.chunksX = this.generator.getHeightmap().getWidth() >> 4;
+        this.chunksZ = this.generator.getHeightmap().getHeight() >> 4;
+    }
+
+    @Setup(Level.Invocation)
+    public void createChunk() {
+        int i = this.next++ % (this.chunksX * this.chunksZ);
+        ChunkPos pos = new ChunkPos(i % this.chunksX - this.chunksX / 2, i / this.chunksX - this.chunksZ / 2);
+        this.chunk = new ProtoChunk(pos, UpgradeData.NO_UPGRADE_DATA, this.world, this.biomes, null);
+    }
+
+    @Benchmark
+    public Chunk populateNoise() {
+        return this.generator.populateNoise(Runnable::run, Blender.getNoBlending(), null, null, this.chunk).join();
+    }
+}
@@ -0,0 +1,83 @@
+package com.miir.atlas.benchmark;
+
+import com.miir.atlas.world.gen.chunk.AtlasChunkGenerator;
+import com.miir.atlas.world.gen.raster.MapRaster;
+import com.miir.atlas.world.gen.raster.MapSampler;
+import net.minecraft.world.Heightmap;
+import net.minecraft.world.gen.chunk.VerticalBlockSample;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * reading elevations out of the avila heightmap, one block, one chunk or one structure footprint at a time. positions hop around the whole
+ * map so the column cache and the cpu caches see about as much reuse as they do during real generation.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SamplingBenchmark {
+    @Param({"1", "3"})
+    public float horizontalScale;
+
+    private AtlasChunkGenerator generator;
+    private MapRaster raster;
+    private MapSampler sampler;
+    private final float[] samples = new float[256];
+    private final int[] heights = new int[24 * 24];
+    private int width;
+    private int height;
+    private int seed = 1;
+
+    @Setup
+    public void setup() throws IOException {
+        Avila.bootstrap();
+        this.generator = Avila.createGenerator(this.horizontalScale);
+        this.raster = this.generator.getHeightmap().getRaster();
+        this.sampler = new MapSampler(this.horizontalScale);
+        this.width = (int) (this.raster.getWidth() * this.horizontalScale);
+        this.height = (int) (this.raster.getHeight() * this.horizontalScale);
+    }
+
+    private int nextX() {
+        this.seed = this.seed * 1664525 + 1013904223;
+        return Math.floorMod(this.seed >> 8, this.width) - this.width / 2;
+    }
+
+    private int nextZ() {
+        this.seed = this.seed * 1664525 + 1013904223;
+        return Math.floorMod(this.seed >> 8, this.height) - this.height / 2;
+    }
+
+    @Benchmark
+    public float sample() {
+        return this.sampler.sample(this.raster, this.nextX(), this.nextZ());
+    }
+
+    @Benchmark
+    public float[] sampleChunk() {
+        this.sampler.sample(this.raster, this.nextX() & ~15, this.nextZ() & ~15, 16, 16, this.samples);
+        return this.samples;
+    }
+
+    @Benchmark
+    public int getHeight() {
+        return this.generator.getHeight(this.nextX(), this.nextZ(), Heightmap.Type.OCEAN_FLOOR_WG, null, null);
+    }
+
+    @Benchmark
+    public int[] getHeights() {
+        // a structure footprint that straddles chunk borders
+        this.generator.getHeights(this.nextX(), this.nextZ(), 24, 24, Heightmap.Type.WORLD_SURFACE_WG, this.heights);
+        return this.heights;
+    }
+
+    @Benchmark
+    public VerticalBlockSample getColumnSample() {
+        return this.generator.getColumnSample(this.nextX(), this.nextZ(), null, null);
+    }
+}
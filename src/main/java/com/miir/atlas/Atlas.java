@@ -1,8 +1,17 @@
 package com.miir.atlas;
 
+import com.miir.atlas.command.AtlasCommand;
+import com.miir.atlas.world.gen.GenerationExecutor;
+import com.miir.atlas.world.gen.GenerationMetrics;
+import com.miir.atlas.world.gen.MapLoader;
+import com.miir.atlas.world.gen.Pregenerator;
 import com.miir.atlas.world.gen.biome.source.AtlasBiomeSource;
 import com.miir.atlas.world.gen.chunk.AtlasChunkGenerator;
 import net.fabricmc.api.ModInitializer;
+import net.fabricmc.fabric.api.command.v2.CommandRegistrationCallback;
+import net.fabricmc.fabric.api.event.lifecycle.v1.ServerLifecycleEvents;
+import net.fabricmc.fabric.api.event.lifecycle.v1.ServerTickEvents;
+import net.fabricmc.loader.api.FabricLoader;
 import net.minecraft.registry.Registries;
 import net.minecraft.registry.Registry;
 import net.minecraft.server.MinecraftServer;
@@ -15,6 +24,7 @@ public class Atlas implements ModInitializer {
     public static final Logger LOGGER = LoggerFactory.getLogger(MOD_ID);
     public static final int GEN_RADIUS = 256;
     public static MinecraftServer SERVER;
+    public static AtlasConfig CONFIG = new AtlasConfig();
 
     public static Identifier id(String path) {
         return new Identifier(MOD_ID, path);
@@ -22,7 +32,19 @@ public class Atlas implements ModInitializer {
 
     @Override
     public void onInitialize() {
+        CONFIG = AtlasConfig.load(FabricLoader.getInstance().getConfigDir().resolve(MOD_ID + ".properties"));
         Registry.register(Registries.CHUNK_GENERATOR, id("atlas"), AtlasChunkGenerator.CODEC);
         Registry.register(Registries.BIOME_SOURCE, id("atlas"), AtlasBiomeSource.CODEC);
+        ServerLifecycleEvents.SERVER_STOPPED.register(server -> {
+            GenerationExecutor.shutdown();
+            GenerationMetrics.clear();
+            MapLoader.releaseAll(server);
+        });
+        ServerLifecycleEvents.SERVER_STOPPING.register(server -> Pregenerator.stopAll());
+        ServerLifecycleEvents.END_DATA_PACK_RELOAD.register((server, resourceManager, success) -> {
+            if (success) MapLoader.reloadAll(server);
+        });
+        ServerTickEvents.END_SERVER_TICK.register(Pregenerator::tick);
+        CommandRegistrationCallback.EVENT.register((dispatcher, registryAccess, environment) -> AtlasCommand.register(dispatcher));
     }
 }
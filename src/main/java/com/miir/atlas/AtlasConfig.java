@@ -0,0 +1,119 @@
+package com.miir.atlas;
+
+import com.miir.atlas.world.gen.GenerationExecutor;
+import com.miir.atlas.world.gen.NamespacedMapImage;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Locale;
+import java.util.Properties;
+
+public class AtlasConfig {
+    private static final String DEFAULTS = """
+            # how decoded maps are stored: "heap" keeps them in memory, "mapped" converts them once into tiled files
+            # in the world folder and reads them through the os page cache (for maps larger than the heap), "lazy"
+            # decodes tiles only once chunks need them and forgets cold tiles again
+            storage=heap
+            # save maps stored on the heap to the world folder once decoded, so later starts read them back instead of
+            # decoding the images again
+            heap_cache=true
+            # edge length of a map tile in pixels, must be a power of two
+            tile_size=256
+            # memory budget for decoded tiles of lazily stored maps, in megabytes
+            tile_cache_mb=512
+            # threads used to decode maps at startup, 0 picks one per core (up to 4)
+            loader_threads=0
+            # where chunk generation runs: "vanilla" uses the chunk system's own workers, "dedicated" uses a separate
+            # atlas pool so pregeneration can use every core without crowding out the rest of the server
+            scheduler=vanilla
+            # threads in the dedicated pool, 0 picks one less than the number of cores
+            gen_threads=0
+            # tasks the dedicated pool may queue before chunk workers run them themselves
+            gen_queue=1024
+            # keep halved copies of maps stored on the heap (about a third more memory), so maps drawn at several pixels
+            # per block (horizontal_scale below 1) are generated from the averaged heights and most common biomes of
+            # those pixels instead of single pixels. changes the terrain of such dimensions
+            mipmaps=false
+            # the most chunks /atlas pregen keeps generating at once, 0 picks eight per core
+            pregen_max_chunks=0
+            # /atlas pregen backs off while the server's average tick takes longer than this many milliseconds
+            pregen_max_mspt=40
+            # time every generation phase of every atlas dimension for /atlas stats, at a cost of a few nanoseconds per
+            # chunk and phase
+            metrics=true
+            """;
+
+    public NamespacedMapImage.Storage storage = NamespacedMapImage.Storage.HEAP;
+    public boolean heapCache = true;
+    public int tileSize = 256;
+    public int tileCacheMegabytes = 512;
+    public int loaderThreads = Math.min(4, Runtime.getRuntime().availableProcessors());
+    public GenerationExecutor.Scheduler scheduler = GenerationExecutor.Scheduler.VANILLA;
+    public int generationThreads = Math.max(1, Runtime.getRuntime().availableProcessors() - 1);
+    public int generationQueue = 1024;
+    public boolean mipmaps = false;
+    public int pregenMaxChunks = 8 * Runtime.getRuntime().availableProcessors();
+    public int pregenMaxMspt = 40;
+    public boolean metrics = true;
+
+    public static AtlasConfig load(Path path) {
+        AtlasConfig config = new AtlasConfig();
+        Properties properties = new Properties();
+        try {
+            if (Files.notExists(path)) {
+                Files.createDirectories(path.getParent());
+                Files.writeString(path, DEFAULTS);
+            }
+            try (Reader reader = Files.newBufferedReader(path)) {
+                properties.load(reader);
+            }
+        } catch (IOException e) {
+            Atlas.LOGGER.error("could not read atlas config at " + path + ", using defaults", e);
+            return config;
+        }
+        config.storage = getEnum(properties, "storage", config.storage);
+        config.heapCache = Boolean.parseBoolean(properties.getProperty("heap_cache", String.valueOf(config.heapCache)).trim());
+        config.tileSize = getInt(properties, "tile_size", config.tileSize);
+        if (Integer.bitCount(config.tileSize) != 1) {
+            Atlas.LOGGER.warn("tile_size must be a power of two, got " + config.tileSize + "! defaulting to 256");
+            config.tileSize = 256;
+        }
+        config.tileCacheMegabytes = Math.max(1, getInt(properties, "tile_cache_mb", config.tileCacheMegabytes));
+        int loaderThreads = getInt(properties, "loader_threads", 0);
+        if (loaderThreads > 0) config.loaderThreads = loaderThreads;
+        config.scheduler = getEnum(properties, "scheduler", config.scheduler);
+        int generationThreads = getInt(properties, "gen_threads", 0);
+        if (generationThreads > 0) config.generationThreads = generationThreads;
+        config.generationQueue = Math.max(1, getInt(properties, "gen_queue", config.generationQueue));
+        config.mipmaps = Boolean.parseBoolean(properties.getProperty("mipmaps", String.valueOf(config.mipmaps)).trim());
+        int pregenMaxChunks = getInt(properties, "pregen_max_chunks", 0);
+        if (pregenMaxChunks > 0) config.pregenMaxChunks = pregenMaxChunks;
+        config.pregenMaxMspt = Math.max(1, getInt(properties, "pregen_max_mspt", config.pregenMaxMspt));
+        config.metrics = Boolean.parseBoolean(properties.getProperty("metrics", String.valueOf(config.metrics)).trim());
+        return config;
+    }
+
+    private static int getInt(Properties properties, String key, int fallback) {
+        String value = properties.getProperty(key);
+        if (value == null) return fallback;
+        try {
+            return Integer.parseInt(value.trim());
+        } catch (NumberFormatException e) {
+            Atlas.LOGGER.warn("invalid value for " + key + " in atlas config: " + value);
+            return fallback;
+        }
+    }
+
+    private static <E extends Enum<E>> E getEnum(Properties properties, String key, E fallback) {
+        String value = properties.getProperty(key);
+        if (value == null) return fallback;
+        try {
+            return Enum.valueOf(fallback.getDeclaringClass(), value.trim().toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            Atlas.LOGGER.warn("invalid value for " + key + " in atlas config: " + value);
+            return fallback;
+        }
+    }
+}
@@ -0,0 +1,109 @@
+package com.miir.atlas.command;
+
+import com.miir.atlas.Atlas;
+import com.miir.atlas.world.gen.GenerationExecutor;
+import com.miir.atlas.world.gen.GenerationMetrics;
+import com.miir.atlas.world.gen.Pregenerator;
+import com.miir.atlas.world.gen.chunk.AtlasChunkGenerator;
+import com.mojang.brigadier.CommandDispatcher;
+import com.mojang.brigadier.context.CommandContext;
+import com.mojang.brigadier.exceptions.CommandSyntaxException;
+import com.mojang.brigadier.exceptions.DynamicCommandExceptionType;
+import net.minecraft.command.argument.DimensionArgumentType;
+import net.minecraft.server.command.ServerCommandSource;
+import net.minecraft.server.world.ServerWorld;
+import net.minecraft.text.Text;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.Map;
+
+import static net.minecraft.server.command.CommandManager.argument;
+import static net.minecraft.server.command.CommandManager.literal;
+
+public class AtlasCommand {
+    private static final DynamicCommandExceptionType NOT_ATLAS = new DynamicCommandExceptionType(dimension -> Text.literal(dimension + " is not an atlas dimension"));
+
+    public static void register(CommandDispatcher<ServerCommandSource> dispatcher) {
+        dispatcher.register(literal("atlas")
+                .requires(source -> source.hasPermissionLevel(2))
+                .then(literal("pregen")
+                        .then(argument("dimension", DimensionArgumentType.dimension())
+                                .executes(AtlasCommand::startPregen)
+                                .then(literal("stop").executes(AtlasCommand::stopPregen))
+                                .then(literal("status").executes(AtlasCommand::pregenStatus))))
+                .then(literal("stats")
+                        .executes(context -> showStats(context, null))
+                        .then(literal("reset").executes(AtlasCommand::resetStats))
+                        .then(argument("dimension", DimensionArgumentType.dimension())
+                                .executes(context -> showStats(context, getAtlasWorld(context).getRegistryKey().getValue().toString())))));
+    }
+
+    private static int showStats(CommandContext<ServerCommandSource> context, @Nullable String dimension) {
+        ServerCommandSource source = context.getSource();
+        if (!Atlas.CONFIG.metrics) {
+            source.sendFeedback(Text.literal("atlas metrics are disabled, set metrics=true in config/atlas.properties to record them"), false);
+        }
+        int shown = 0;
+        for (Map.Entry<String, GenerationMetrics> entry : GenerationMetrics.getAll().entrySet()) {
+            if (dimension != null && !dimension.equals(entry.getKey())) continue;
+            source.sendFeedback(Text.literal(entry.getKey() + ":"), false);
+            for (GenerationMetrics.Phase phase : GenerationMetrics.Phase.values()) {
+                GenerationMetrics.PhaseStats stats = entry.getValue().get(phase);
+                if (stats.getCount() == 0) continue;
+                source.sendFeedback(Text.literal("  " + phase.getName() + ": " + stats.describe()), false);
+            }
+            shown++;
+        }
+        if (shown == 0) {
+            source.sendFeedback(Text.literal("no atlas dimension has generated anything yet"), false);
+        }
+        GenerationExecutor executor = GenerationExecutor.getInstance();
+        if (executor != null) {
+            source.sendFeedback(Text.literal("worldgen threads: " + executor.describe()), false);
+        }
+        return shown;
+    }
+
+    private static int resetStats(CommandContext<ServerCommandSource> context) {
+        GenerationMetrics.getAll().values().forEach(GenerationMetrics::reset);
+        context.getSource().sendFeedback(Text.literal("reset atlas metrics"), true);
+        return 1;
+    }
+
+    private static ServerWorld getAtlasWorld(CommandContext<ServerCommandSource> context) throws CommandSyntaxException {
+        ServerWorld world = DimensionArgumentType.getDimensionArgument(context, "dimension");
+        if (!(world.getChunkManager().getChunkGenerator() instanceof AtlasChunkGenerator)) {
+            throw NOT_ATLAS.create(world.getRegistryKey().getValue());
+        }
+        return world;
+    }
+
+    private static int startPregen(CommandContext<ServerCommandSource> context) throws CommandSyntaxException {
+        ServerWorld world = getAtlasWorld(context);
+        if (!Pregenerator.start(world, context.getSource())) {
+            context.getSource().sendError(Text.literal(world.getRegistryKey().getValue() + " is already being pregenerated"));
+            return 0;
+        }
+        return 1;
+    }
+
+    private static int stopPregen(CommandContext<ServerCommandSource> context) throws CommandSyntaxException {
+        ServerWorld world = getAtlasWorld(context);
+        if (!Pregenerator.stop(world.getRegistryKey())) {
+            context.getSource().sendError(Text.literal(world.getRegistryKey().getValue() + " is not being pregenerated"));
+            return 0;
+        }
+        return 1;
+    }
+
+    private static int pregenStatus(CommandContext<ServerCommandSource> context) throws CommandSyntaxException {
+        ServerWorld world = getAtlasWorld(context);
+        Pregenerator pregenerator = Pregenerator.get(world.getRegistryKey());
+        if (pregenerator == null) {
+            context.getSource().sendError(Text.literal(world.getRegistryKey().getValue() + " is not being pregenerated"));
+            return 0;
+        }
+        context.getSource().sendFeedback(Text.literal(pregenerator.describe()), false);
+        return 1;
+    }
+}
@@ -1,21 +1,24 @@
 package com.miir.atlas.mixin;
 
 import com.miir.atlas.Atlas;
+import com.miir.atlas.world.gen.MapLoader;
 import com.miir.atlas.world.gen.biome.source.AtlasBiomeSource;
-import com.miir.atlas.world.gen.chunk.AtlasChunkGenerator;
 import net.minecraft.registry.*;
 import net.minecraft.server.MinecraftServer;
 import net.minecraft.server.WorldGenerationProgressListener;
+import net.minecraft.server.world.ServerWorld;
+import net.minecraft.util.math.BlockPos;
+import net.minecraft.world.biome.source.util.MultiNoiseUtil;
 import net.minecraft.world.dimension.DimensionOptions;
+import net.minecraft.world.level.ServerWorldProperties;
 import org.spongepowered.asm.mixin.Final;
 import org.spongepowered.asm.mixin.Mixin;
 import org.spongepowered.asm.mixin.Shadow;
 import org.spongepowered.asm.mixin.injection.At;
 import org.spongepowered.asm.mixin.injection.Inject;
+import org.spongepowered.asm.mixin.injection.Redirect;
 import org.spongepowered.asm.mixin.injection.callback.CallbackInfo;
 
-import java.util.Map;
-
 @Mixin(MinecraftServer.class)
 public abstract class MinecraftServerMixin {
     @Shadow
@@ -28,21 +31,15 @@ public abstract class MinecraftServerMixin {
         MinecraftServer server = (MinecraftServer) (Object) this;
         Atlas.SERVER = server;
         Registry<DimensionOptions> registry = this.combinedDynamicRegistries.getCombinedRegistryManager().get(RegistryKeys.DIMENSION);
-        for (Map.Entry<RegistryKey<DimensionOptions>, DimensionOptions> entry : registry.getEntrySet()) {
-            if (entry.getValue().chunkGenerator().getBiomeSource() instanceof AtlasBiomeSource abs) {
-                try {
-                    abs.findBiomeMap(server, entry.getKey().getValue().toString());
-                } catch (Exception e) {
-                    throw new IllegalStateException(e);
-                }
-            }
-            if (entry.getValue().chunkGenerator() instanceof AtlasChunkGenerator cg) {
-                try {
-                    cg.findMaps(server, entry.getKey().getValue().toString());
-                } catch (Exception e) {
-                    throw new IllegalStateException("error initializing: could not find maps for dimension "+entry.getKey().getValue().toString());
-                }
-            }
+        MapLoader.loadAll(server, registry);
+    }
+
+    @Redirect(method = "setupSpawn", at = @At(value = "INVOKE", target = "Lnet/minecraft/world/biome/source/util/MultiNoiseUtil$MultiNoiseSampler;findBestSpawnPosition()Lnet/minecraft/util/math/BlockPos;"), require = 0)
+    private static BlockPos atlas_findSpawn(MultiNoiseUtil.MultiNoiseSampler sampler, ServerWorld world, ServerWorldProperties worldProperties, boolean bonusChest, boolean debugWorld) {
+        if (world.getChunkManager().getChunkGenerator().getBiomeSource() instanceof AtlasBiomeSource biomeSource) {
+            BlockPos spawn = biomeSource.findSpawnPosition();
+            if (spawn != null) return spawn;
         }
+        return sampler.findBestSpawnPosition();
     }
 }
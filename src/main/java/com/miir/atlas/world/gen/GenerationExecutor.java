@@ -0,0 +1,116 @@
+package com.miir.atlas.world.gen;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.miir.atlas.Atlas;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * an optional pool that runs atlas' chunk generation stages instead of the executor the chunk system hands in.
+ * the queue is bounded; once it is full, or once the pool has been shut down, the submitting chunk worker runs the
+ * task itself, which throttles the chunk system instead of letting work pile up.
+ */
+public class GenerationExecutor implements Executor {
+    @Nullable private static GenerationExecutor instance;
+
+    private final ThreadPoolExecutor pool;
+    private final LongAdder tasks = new LongAdder();
+    private final LongAdder waitNanos = new LongAdder();
+    private final AtomicLong maxWaitNanos = new AtomicLong();
+
+    private GenerationExecutor(int threads, int queueSize) {
+        this.pool = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(queueSize),
+                new ThreadFactoryBuilder().setNameFormat("atlas-worldgen-%d").setDaemon(true).build(),
+                GenerationExecutor::runRejected);
+    }
+
+    // unlike CallerRunsPolicy, which silently drops tasks once the pool is shut down, this also runs tasks submitted
+    // while the server stops, so no chunk future is left hanging
+    private static void runRejected(Runnable task, ThreadPoolExecutor pool) {
+        task.run();
+    }
+
+    /**
+     * @return the dedicated pool if the config asks for one, otherwise {@code supplied}
+     */
+    public static Executor get(Executor supplied) {
+        if (Atlas.CONFIG.scheduler != Scheduler.DEDICATED) return supplied;
+        GenerationExecutor executor = instance;
+        if (executor == null) {
+            synchronized (GenerationExecutor.class) {
+                if (instance == null) {
+                    instance = new GenerationExecutor(Atlas.CONFIG.generationThreads, Atlas.CONFIG.generationQueue);
+                    Atlas.LOGGER.info("started " + Atlas.CONFIG.generationThreads + " atlas worldgen threads");
+                }
+                executor = instance;
+            }
+        }
+        return executor;
+    }
+
+    @Nullable
+    public static GenerationExecutor getInstance() {
+        return instance;
+    }
+
+    public static synchronized void shutdown() {
+        if (instance == null) return;
+        Atlas.LOGGER.info("stopping atlas worldgen threads: " + instance.describe());
+        instance.pool.shutdown();
+        instance = null;
+    }
+
+    @Override
+    public void execute(Runnable command) {
+        long submitted = System.nanoTime();
+        this.pool.execute(() -> {
+            long wait = System.nanoTime() - submitted;
+            this.tasks.increment();
+            this.waitNanos.add(wait);
+            this.maxWaitNanos.accumulateAndGet(wait, Math::max);
+            command.run();
+        });
+    }
+
+    public int getQueueDepth() {
+        return this.pool.getQueue().size();
+    }
+
+    public int getActiveThreads() {
+        return this.pool.getActiveCount();
+    }
+
+    public long getTaskCount() {
+        return this.tasks.sum();
+    }
+
+    /**
+     * @return the mean time tasks spent queued before starting, in microseconds
+     */
+    public long getAverageWaitMicros() {
+        long tasks = this.tasks.sum();
+        return tasks == 0 ? 0 : this.waitNanos.sum() / tasks / 1000;
+    }
+
+    public long getMaxWaitMicros() {
+        return this.maxWaitNanos.get() / 1000;
+    }
+
+    public String describe() {
+        return this.getTaskCount() + " tasks, " + this.getActiveThreads() + " active, " + this.getQueueDepth()
+                + " queued, " + this.getAverageWaitMicros() + " us average wait, " + this.getMaxWaitMicros() + " us max wait";
+    }
+
+    public enum Scheduler {
+        /** run on whatever executor the chunk system supplies */
+        VANILLA,
+        /** run on a dedicated atlas pool */
+        DEDICATED
+    }
+}
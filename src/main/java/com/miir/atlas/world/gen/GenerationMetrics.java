@@ -0,0 +1,172 @@
+package com.miir.atlas.world.gen;
+
+import com.miir.atlas.Atlas;
+
+import java.util.Collections;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * how often and how long each generation phase of one dimension ran. timings go into power-of-two microsecond
+ * buckets, so recording is a handful of atomic adds. with {@code metrics=false} in the config nothing is read or
+ * recorded beyond one field check per phase.
+ * <pre>
+ * long start = metrics.start();
+ * ...
+ * metrics.record(GenerationMetrics.Phase.NOISE, start);
+ * </pre>
+ */
+public class GenerationMetrics {
+    private static final long DISABLED = Long.MIN_VALUE;
+    private static final Map<String, GenerationMetrics> DIMENSIONS = new ConcurrentSkipListMap<>();
+
+    private final String dimension;
+    private final PhaseStats[] phases = new PhaseStats[Phase.values().length];
+
+    public GenerationMetrics(String dimension) {
+        this.dimension = dimension;
+        for (int i = 0; i < this.phases.length; i++) {
+            this.phases[i] = new PhaseStats();
+        }
+    }
+
+    /**
+     * @return the metrics of the named dimension, created on first use
+     */
+    public static GenerationMetrics get(String dimension) {
+        return DIMENSIONS.computeIfAbsent(dimension, GenerationMetrics::new);
+    }
+
+    /**
+     * @return the metrics of every dimension that has any, by dimension name
+     */
+    public static Map<String, GenerationMetrics> getAll() {
+        return Collections.unmodifiableMap(DIMENSIONS);
+    }
+
+    /**
+     * forgets every dimension, for when the server that owns them stops
+     */
+    public static void clear() {
+        DIMENSIONS.clear();
+    }
+
+    public String getDimension() {
+        return this.dimension;
+    }
+
+    /**
+     * @return a timestamp to hand to {@link #record} once the phase is done
+     */
+    public long start() {
+        return Atlas.CONFIG.metrics ? System.nanoTime() : DISABLED;
+    }
+
+    public void record(Phase phase, long start) {
+        if (start == DISABLED) return;
+        this.phases[phase.ordinal()].add(System.nanoTime() - start);
+    }
+
+    public PhaseStats get(Phase phase) {
+        return this.phases[phase.ordinal()];
+    }
+
+    public void reset() {
+        for (PhaseStats stats : this.phases) {
+            stats.reset();
+        }
+    }
+
+    public enum Phase {
+        MAPS,
+        BIOMES,
+        NOISE,
+        CARVE,
+        SURFACE,
+        ENTITIES;
+
+        public String getName() {
+            return this.name().toLowerCase(Locale.ROOT);
+        }
+    }
+
+    public static class PhaseStats {
+        // bucket i holds durations below 2^i microseconds, the last one everything from about 4 seconds up
+        private static final int BUCKETS = 24;
+
+        private final LongAdder count = new LongAdder();
+        private final LongAdder totalNanos = new LongAdder();
+        private final AtomicLong maxNanos = new AtomicLong();
+        private final LongAdder[] buckets = new LongAdder[BUCKETS];
+
+        private PhaseStats() {
+            for (int i = 0; i < BUCKETS; i++) {
+                this.buckets[i] = new LongAdder();
+            }
+        }
+
+        private void add(long nanos) {
+            this.count.increment();
+            this.totalNanos.add(nanos);
+            if (nanos > this.maxNanos.get()) this.maxNanos.accumulateAndGet(nanos, Math::max);
+            this.buckets[Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(nanos / 1000))].increment();
+        }
+
+        private void reset() {
+            this.count.reset();
+            this.totalNanos.reset();
+            this.maxNanos.set(0);
+            for (LongAdder bucket : this.buckets) {
+                bucket.reset();
+            }
+        }
+
+        public long getCount() {
+            return this.count.sum();
+        }
+
+        public long getTotalMicros() {
+            return this.totalNanos.sum() / 1000;
+        }
+
+        public long getAverageMicros() {
+            long count = this.count.sum();
+            return count == 0 ? 0 : this.totalNanos.sum() / count / 1000;
+        }
+
+        public long getMaxMicros() {
+            return this.maxNanos.get() / 1000;
+        }
+
+        /**
+         * @param quantile between 0 and 1
+         * @return an upper bound on the given quantile of the recorded durations, in microseconds. the bound is the
+         * next power of two, or the maximum if that is smaller.
+         */
+        public long getQuantileMicros(double quantile) {
+            long total = 0;
+            long[] counts = new long[BUCKETS];
+            for (int i = 0; i < BUCKETS; i++) {
+                counts[i] = this.buckets[i].sum();
+                total += counts[i];
+            }
+            if (total == 0) return 0;
+            long wanted = (long) Math.ceil(quantile * total);
+            long seen = 0;
+            for (int i = 0; i < BUCKETS - 1; i++) {
+                seen += counts[i];
+                if (seen >= wanted) return Math.min(1L << i, this.getMaxMicros());
+            }
+            return this.getMaxMicros();
+        }
+
+        public String describe() {
+            return this.getCount() + " runs, " + this.getAverageMicros() + " us average, p50 <= " + this.getQuantileMicros(0.5)
+                    + " us, p99 <= " + this.getQuantileMicros(0.99) + " us, max " + this.getMaxMicros() + " us, "
+                    + this.getTotalMicros() / 1000 + " ms total";
+        }
+    }
+}
@@ -0,0 +1,130 @@
+package com.miir.atlas.world.gen;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.miir.atlas.Atlas;
+import com.miir.atlas.world.gen.biome.source.AtlasBiomeSource;
+import com.miir.atlas.world.gen.chunk.AtlasChunkGenerator;
+import net.minecraft.registry.Registry;
+import net.minecraft.registry.RegistryKey;
+import net.minecraft.server.MinecraftServer;
+import net.minecraft.server.world.ServerWorld;
+import net.minecraft.world.dimension.DimensionOptions;
+import net.minecraft.world.gen.chunk.ChunkGenerator;
+
+import java.io.IOException;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class MapLoader {
+    private static CompletableFuture<Void> reloading = CompletableFuture.completedFuture(null);
+
+    /**
+     * starts loading the maps of every atlas dimension on a bounded pool and returns without waiting for them.
+     * each dimension blocks on its own maps the first time it reads from them.
+     */
+    public static CompletableFuture<Void> loadAll(MinecraftServer server, Registry<DimensionOptions> registry) {
+        ExecutorService executor = Executors.newFixedThreadPool(Atlas.CONFIG.loaderThreads, new ThreadFactoryBuilder()
+                .setNameFormat("atlas-map-loader-%d")
+                .setDaemon(true)
+                .build());
+        long start = System.nanoTime();
+        List<CompletableFuture<Void>> loads = new ArrayList<>();
+        for (Map.Entry<RegistryKey<DimensionOptions>, DimensionOptions> entry : registry.getEntrySet()) {
+            String levelName = entry.getKey().getValue().toString();
+            if (entry.getValue().chunkGenerator().getBiomeSource() instanceof AtlasBiomeSource abs) {
+                loads.add(abs.findBiomeMap(server, levelName, executor).whenComplete((v, t) -> {
+                    if (t != null) Atlas.LOGGER.error("error initializing: could not find biome map for dimension " + levelName, t);
+                }));
+            }
+            if (entry.getValue().chunkGenerator() instanceof AtlasChunkGenerator cg) {
+                loads.add(cg.findMaps(server, levelName, executor).whenComplete((v, t) -> {
+                    if (t != null) Atlas.LOGGER.error("error initializing: could not find maps for dimension " + levelName, t);
+                }));
+            }
+        }
+        return CompletableFuture.allOf(loads.toArray(CompletableFuture[]::new)).whenComplete((v, t) -> {
+            executor.shutdown();
+            if (t == null && !loads.isEmpty()) {
+                Atlas.LOGGER.info("finished loading atlas maps in " + (System.nanoTime() - start) / 1_000_000 + " ms");
+            }
+        });
+    }
+
+    /**
+     * checks every atlas dimension's maps against the reloaded datapacks in the background and swaps in the ones
+     * that changed. generation carries on with the old maps in the meantime. reloads queue up behind each other.
+     */
+    public static synchronized CompletableFuture<Void> reloadAll(MinecraftServer server) {
+        reloading = reloading.handle((v, t) -> null).thenCompose(v -> reload(server));
+        return reloading;
+    }
+
+    private static CompletableFuture<Void> reload(MinecraftServer server) {
+        ExecutorService executor = Executors.newFixedThreadPool(Atlas.CONFIG.loaderThreads, new ThreadFactoryBuilder()
+                .setNameFormat("atlas-map-loader-%d")
+                .setDaemon(true)
+                .build());
+        long start = System.nanoTime();
+        AtomicInteger changed = new AtomicInteger();
+        List<CompletableFuture<Void>> loads = new ArrayList<>();
+        for (ServerWorld world : server.getWorlds()) {
+            String levelName = world.getRegistryKey().getValue().toString();
+            ChunkGenerator generator = world.getChunkManager().getChunkGenerator();
+            if (generator.getBiomeSource() instanceof AtlasBiomeSource abs) {
+                loads.add(CompletableFuture.runAsync(() -> {
+                    try {
+                        if (abs.reloadBiomeMap(server)) changed.incrementAndGet();
+                    } catch (IOException e) {
+                        throw new CompletionException(e);
+                    }
+                }, executor).whenComplete((v, t) -> {
+                    if (t != null) Atlas.LOGGER.error("could not reload biome map for dimension " + levelName + ", keeping the old one", t);
+                }));
+            }
+            if (generator instanceof AtlasChunkGenerator cg) {
+                loads.add(CompletableFuture.runAsync(() -> {
+                    try {
+                        if (cg.reloadMaps(server)) changed.incrementAndGet();
+                    } catch (IOException e) {
+                        throw new CompletionException(e);
+                    }
+                }, executor).whenComplete((v, t) -> {
+                    if (t != null) Atlas.LOGGER.error("could not reload maps for dimension " + levelName + ", keeping the old ones", t);
+                }));
+            }
+        }
+        return CompletableFuture.allOf(loads.toArray(CompletableFuture[]::new)).handle((v, t) -> {
+            executor.shutdown();
+            if (changed.get() > 0) {
+                Atlas.LOGGER.info("reloaded atlas maps of " + changed.get() + " generators and biome sources in " + (System.nanoTime() - start) / 1_000_000 + " ms");
+            }
+            return null;
+        });
+    }
+
+    /**
+     * lets go of the maps of every atlas dimension when the server stops, so the rasters are freed before another
+     * world is opened
+     */
+    public static void releaseAll(MinecraftServer server) {
+        for (ServerWorld world : server.getWorlds()) {
+            ChunkGenerator generator = world.getChunkManager().getChunkGenerator();
+            if (generator.getBiomeSource() instanceof AtlasBiomeSource abs) {
+                abs.releaseBiomeMap();
+            }
+            if (generator instanceof AtlasChunkGenerator cg) {
+                cg.releaseMaps();
+            }
+        }
+        if (RasterRegistry.size() > 0) {
+            Atlas.LOGGER.warn(RasterRegistry.size() + " atlas maps are still held after the server stopped");
+        }
+    }
+}
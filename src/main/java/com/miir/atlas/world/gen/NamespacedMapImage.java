@@ -1,76 +1,94 @@
 package com.miir.atlas.world.gen;
 
 import com.miir.atlas.Atlas;
-import com.miir.atlas.world.gen.chunk.AtlasChunkGenerator;
+import com.miir.atlas.world.gen.jfr.MapDecodeEvent;
+import com.miir.atlas.world.gen.jfr.TileLoadEvent;
+import com.miir.atlas.world.gen.raster.*;
 import net.minecraft.resource.Resource;
 import net.minecraft.server.MinecraftServer;
 import net.minecraft.util.Identifier;
-import net.minecraft.util.math.MathHelper;
+import net.minecraft.util.WorldSavePath;
 import org.jetbrains.annotations.Nullable;
 
 import javax.imageio.ImageIO;
 import java.awt.image.BufferedImage;
-import java.awt.image.Raster;
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
-import java.util.Arrays;
+import java.io.InputStream;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.Locale;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.regex.Pattern;
 
 public class NamespacedMapImage {
 
-    private static final int EMPTY = -2;
-    private boolean initialized = false;
-
     public enum Type {
         GRAYSCALE,
         COLOR
     }
 
+    public enum Storage {
+        HEAP,
+        MAPPED,
+        LAZY
+    }
+
+    private static TileCache tileCache;
+
     private final String path;
     private final Type type;
-    private BufferedImage image;
-    private int width;
-    private int height;
-    private int[][] pixels;
+    private volatile RasterRegistry.SharedRaster shared;
+    // the shared raster this image last saw, so every holder notices a reload, whichever of them did the decoding
+    private MapRaster seen;
+    private volatile CompletableFuture<Void> loading;
 
     public NamespacedMapImage(String path, Type type) {
         this.path = path;
         this.type = type;
     }
 
-    public int[][] loadPixelsInRange(int x, int z, boolean grayscale, int radius) {
-        if (x >= this.width || x < 0 || z > this.height || z < 0) return this.pixels;
-        if (!this.initialized) {
-            throw new IllegalStateException("tried to read from an uninitialized atlas!");
-        }
-        // todo: BufferedImage::getSubImage may be better for on-demand loading optimization
-        return this.getOrDownloadPixels(
-                Math.max(0, x-radius),
-                Math.max(0, z-radius),
-                Math.min(this.getWidth(), x+radius),
-                Math.min(this.getHeight(), z+radius), grayscale);
+    /**
+     * makes sure the pixels in the given rectangle (inclusive) are decoded. only lazily stored maps do any work here.
+     */
+    public void loadPixelsInRange(int x0, int z0, int x1, int z1) {
+        MapRaster raster = this.getRaster();
+        if (x1 < 0 || z1 < 0 || x0 >= raster.getWidth() || z0 >= raster.getHeight()) return;
+        this.getOrDownloadPixels(raster, Math.max(0, x0), Math.max(0, z0), Math.min(raster.getWidth()-1, x1), Math.min(raster.getHeight()-1, z1));
     }
 
-    private int[][] getOrDownloadPixels(int x0, int z0, int x1, int z1, boolean grayscale) {
-        if (x0 >= this.width) x0 = this.width-1;
-        if (x1 >= this.width) x1 = this.width-1;
-        if (z0 >= this.height) z0 = this.height-1;
-        if (z1 >= this.height) z1 = this.height-1;
-
-        if (this.pixels[z0][x0] == EMPTY)  {
-            try {
-                BufferedImage image = getImage(path, Atlas.SERVER);
-                if (grayscale) {
-                    populateGrayscale(image, x0, z0, x1, z1);
-                } else {
-                    populateColor(image, x0, z0, x1, z1);
-                }
-            } catch (IOException ioe) {
-                Atlas.LOGGER.error("could not find map at " + path + "!");
+    private void getOrDownloadPixels(MapRaster raster, int x0, int z0, int x1, int z1) {
+        if (raster instanceof LazyRaster lazy) {
+            TileLoadEvent event = new TileLoadEvent();
+            event.begin();
+            int tiles = lazy.load(x0, z0, x1, z1);
+            event.end();
+            if (tiles > 0 && event.shouldCommit()) {
+                event.path = this.path;
+                event.tiles = tiles;
+                event.minX = x0;
+                event.minZ = z0;
+                event.maxX = x1;
+                event.maxZ = z1;
+                event.commit();
             }
         }
-        return this.pixels;
     }
 
-    private BufferedImage getImage(String path, MinecraftServer server) throws IOException {
+    public static synchronized TileCache getTileCache() {
+        if (tileCache == null) {
+            tileCache = new TileCache(Atlas.CONFIG.tileCacheMegabytes * 1024L * 1024L);
+        }
+        return tileCache;
+    }
+
+    private byte[] getImage(String path, MinecraftServer server) throws IOException {
         try {
             return this.findImage(path, server);
         } catch (IOException ioe) {
@@ -78,10 +96,7 @@ public class NamespacedMapImage {
         }
     }
 
-    private BufferedImage findImage(String path, MinecraftServer server) throws IOException {
-        if (this.image != null) {
-            return image;
-        }
+    private byte[] findImage(String path, MinecraftServer server) throws IOException {
         Identifier id = new Identifier(path);
         Resource imageResource = server.getResourceManager()
                 .getResource(id)
@@ -89,88 +104,313 @@ public class NamespacedMapImage {
             if (imageResource == null) {
                 throw new IOException("could not find " + id);
             }
-        BufferedImage i = ImageIO.read(imageResource.getInputStream());
-        this.image = i;
-        return i;
+        try (InputStream stream = imageResource.getInputStream()) {
+            return stream.readAllBytes();
+        }
+    }
+
+    private RowSource readImage(byte[] source) throws IOException {
+        RowSource png = PngRowSource.open(source, this.type == Type.GRAYSCALE);
+        if (png != null) return png;
+        BufferedImage image = ImageIO.read(new ByteArrayInputStream(source));
+        if (image == null) {
+            throw new IOException("could not decode " + this.path);
+        }
+        int width = image.getWidth();
+        if (width % 2 != 0) width -=1;
+        int height = image.getHeight();
+        if (height % 2 != 0) height -=1;
+        return new ImageRowSource(image, width, height);
     }
 
     public void initialize(MinecraftServer server) throws IOException {
+        this.initialize(() -> getImage(this.path, server), server.getSavePath(WorldSavePath.ROOT));
+    }
+
+    /**
+     * decodes an already read image, keeping any files it needs under {@code worldDirectory}
+     */
+    public void initialize(byte[] source, Path worldDirectory) throws IOException {
+        this.initialize(() -> source, worldDirectory);
+    }
+
+    /**
+     * attaches this image to the shared raster of its image and type, decoding it only if no other image has yet
+     */
+    private synchronized void initialize(ImageSupplier source, Path worldDirectory) throws IOException {
+        RasterRegistry.SharedRaster shared = RasterRegistry.acquire(new Identifier(this.path), this.type);
         try {
-            getImage(this.path, server);
-        } catch (IOException e) {
-            getImage(this.path+".png", server);
+            synchronized (shared) {
+                if (!shared.isLoaded()) {
+                    this.load(shared, source.get(), worldDirectory);
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            RasterRegistry.release(shared);
+            throw e;
         }
-        this.width = image.getWidth();
-        if (this.width % 2 != 0) width -=1;
-        this.height = image.getHeight();
-        if (this.height % 2 != 0) height -=1;
-        this.pixels = new int[height][width];
-        for (int[] arr : this.pixels) {
-            Arrays.fill(arr, EMPTY);
+        RasterRegistry.SharedRaster old = this.shared;
+        this.shared = shared;
+        this.seen = shared.getRaster();
+        if (old != null) {
+            RasterRegistry.release(old);
         }
-        this.initialized = true;
-        this.populate(image);
     }
 
-    private void populate(BufferedImage image) {
-        switch (this.type) {
-            case GRAYSCALE -> populateGrayscale(image);
-            case COLOR   -> populateColor(image);
+    private void load(RasterRegistry.SharedRaster shared, byte[] source, Path worldDirectory) throws IOException {
+        MapDecodeEvent event = new MapDecodeEvent();
+        event.begin();
+        byte[] digest = digest(source);
+        MapRaster raster = switch (Atlas.CONFIG.storage) {
+            case HEAP -> this.decodeCached(source, digest, worldDirectory);
+            case MAPPED -> this.map(source, digest, worldDirectory);
+            case LAZY -> this.pack(source, digest, worldDirectory);
+        };
+        event.end();
+        if (event.shouldCommit()) {
+            event.path = this.path;
+            event.storage = Atlas.CONFIG.storage.name().toLowerCase(Locale.ROOT);
+            event.width = raster.getWidth();
+            event.height = raster.getHeight();
+            event.bytes = source.length;
+            event.commit();
+        }
+        shared.set(raster, digest);
+        if (Atlas.CONFIG.storage != Storage.HEAP) {
+            // the raster this one replaced has just been released, so copies of older images can go
+            String extension = Atlas.CONFIG.storage == Storage.MAPPED ? "raster" : "tiles";
+            this.deleteStaleFiles(this.getRasterFile(worldDirectory, extension, digest), extension);
         }
     }
 
-    private void populateGrayscale(BufferedImage image, int x0, int z0, int x1, int z1) {
-        for (int x = x0; x < x1; x++) {
-            for (int y = z0; y < z1; y++) {
-                this.pixels[y][x] = 0xFF & image.getRGB(x, y);
+    /**
+     * reads the map again from the server's current resources and, if the image changed, swaps in a new raster for
+     * every image sharing it. generation keeps reading the old raster until the new one is complete.
+     * @return whether the image changed since this image last looked, including when another image sharing the raster
+     * already reloaded it
+     */
+    public synchronized boolean reload(MinecraftServer server) throws IOException {
+        RasterRegistry.SharedRaster shared = this.shared;
+        if (shared == null) {
+            this.initialize(server);
+            return true;
+        }
+        synchronized (shared) {
+            byte[] source = getImage(this.path, server);
+            if (!shared.isLoaded() || !MessageDigest.isEqual(digest(source), shared.getDigest())) {
+                this.load(shared, source, server.getSavePath(WorldSavePath.ROOT));
             }
         }
+        MapRaster raster = shared.getRaster();
+        boolean changed = raster != this.seen;
+        this.seen = raster;
+        return changed;
+    }
+
+    /**
+     * lets go of this image's raster, which is freed once no other image shares it. the image has to be initialized
+     * again before it can be read.
+     */
+    public synchronized void release() {
+        RasterRegistry.SharedRaster shared = this.shared;
+        this.shared = null;
+        this.seen = null;
+        this.loading = null;
+        if (shared != null) {
+            RasterRegistry.release(shared);
+        }
     }
-    private void populateColor(BufferedImage image, int x0, int z0, int x1, int z1) {
-        for (int x = x0; x < x1; x++) {
-            for (int y = z0; y < z1; y++) {
-                this.pixels[y][x] = 0xFFFFFF & image.getRGB(x, y);
+
+    // identifies an image's contents, both to spot changed maps and to key the files converted from them
+    private static byte[] digest(byte[] source) {
+        try {
+            return MessageDigest.getInstance("SHA-256").digest(source);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("every java runtime provides sha-256", e);
+        }
+    }
+
+    @FunctionalInterface
+    private interface ImageSupplier {
+        byte[] get() throws IOException;
+    }
+
+    /**
+     * loads the map on the given executor. reads made before it finishes block until the map is ready.
+     */
+    public CompletableFuture<Void> initializeAsync(MinecraftServer server, Executor executor) {
+        CompletableFuture<Void> loading = CompletableFuture.runAsync(() -> {
+            long start = System.nanoTime();
+            try {
+                this.initialize(server);
+            } catch (IOException e) {
+                throw new CompletionException(e);
             }
+            Atlas.LOGGER.info("loaded " + this.path + " (" + this.getWidth() + "x" + this.getHeight() + ") in " + (System.nanoTime() - start) / 1_000_000 + " ms");
+        }, executor);
+        this.loading = loading;
+        return loading;
+    }
+
+    private MapRaster decode(byte[] source) throws IOException {
+        // the decoded image is only needed until its pixels are copied into the raster
+        RowSource image = this.readImage(source);
+        if ((long) image.getWidth() * image.getHeight() > Integer.MAX_VALUE) {
+            throw new IOException("map " + this.path + " is too large to fit in memory (" + image.getWidth() + "x" + image.getHeight() + "), use mapped storage instead");
         }
+        return switch (this.type) {
+            case GRAYSCALE -> populateGrayscale(image);
+            case COLOR   -> populateColor(image);
+        };
+    }
+
+    /**
+     * decodes the map into memory, or reads it back from the world folder if the same image was decoded before
+     */
+    private MapRaster decodeCached(byte[] source, byte[] digest, Path worldDirectory) throws IOException {
+        if (!Atlas.CONFIG.heapCache) return this.decode(source);
+        Path file = this.getRasterFile(worldDirectory, "heap");
+        boolean color = this.type == Type.COLOR;
+        try {
+            MapRaster raster = RasterFile.read(file, digest, color);
+            if (raster != null) return raster;
+        } catch (IOException e) {
+            Atlas.LOGGER.warn("could not read decoded " + this.path + " from " + file + ", decoding it again", e);
+        }
+        MapRaster raster = this.decode(source);
+        try {
+            RasterFile.write(raster, color, digest, file);
+        } catch (IOException e) {
+            Atlas.LOGGER.warn("could not save decoded " + this.path + " to " + file, e);
+        }
+        return raster;
     }
-    private void populateGrayscale(BufferedImage image) {
-        int[] data = new int[this.width*this.height];
-        image.getRGB(0, 0, width, height, data, 0, width);
-        int x = 0;
-        int y = 0;
-        for (int datum : data) {
-            if (x >= width) {
-                x = 0;
-                y++;
+
+    private Path getRasterFile(Path worldDirectory, String extension) {
+        Identifier id = new Identifier(this.path);
+        return worldDirectory
+                .resolve(Atlas.MOD_ID)
+                .resolve(id.getNamespace())
+                .resolve(id.getPath() + "." + this.type.name().toLowerCase(Locale.ROOT) + "." + extension);
+    }
+
+    /**
+     * @return the file for a copy of the map that stays open while the map is in use. the name carries the image's
+     * digest, so a changed image gets a file of its own instead of replacing one the old raster still has open, which
+     * windows refuses while it is mapped.
+     */
+    private Path getRasterFile(Path worldDirectory, String extension, byte[] digest) {
+        return this.getRasterFile(worldDirectory, HexFormat.of().formatHex(digest) + "." + extension);
+    }
+
+    /**
+     * deletes this map's copies of older images next to {@code current}, including ones saved before files were named
+     * by digest. files the os won't delete yet, like ones windows still has mapped, are left for a later load.
+     */
+    private void deleteStaleFiles(Path current, String extension) {
+        Path directory = current.getParent();
+        String path = new Identifier(this.path).getPath();
+        String name = path.substring(path.lastIndexOf('/') + 1) + "." + this.type.name().toLowerCase(Locale.ROOT);
+        Pattern stale = Pattern.compile(Pattern.quote(name) + "\\.([0-9a-f]{64}\\.)?" + Pattern.quote(extension));
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory)) {
+            for (Path file : files) {
+                if (file.equals(current) || !stale.matcher(file.getFileName().toString()).matches()) continue;
+                try {
+                    Files.delete(file);
+                    Atlas.LOGGER.info("deleted stale " + file);
+                } catch (IOException e) {
+                    Atlas.LOGGER.info("could not delete stale " + file + " yet, trying again on the next load");
+                }
             }
-            this.pixels[y][x++] = datum & 0xFF;
+        } catch (IOException e) {
+            Atlas.LOGGER.warn("could not look for stale copies of " + this.path + " in " + directory, e);
         }
     }
 
-    private void populateColor(BufferedImage image) {
-        int [] data = new int[this.width*this.height];
-        image.getRGB(0, 0, width, height, data, 0, width);
-        int x = 0;
-        int y = 0;
-        for (int datum : data) {
-            if (x >= width) {
-                x = 0;
-                y++;
+    private MapRaster map(byte[] source, byte[] digest, Path worldDirectory) throws IOException {
+        Path file = this.getRasterFile(worldDirectory, "raster", digest);
+        MapRaster raster = MappedRaster.open(file, digest);
+        if (raster == null) {
+            Atlas.LOGGER.info("converting " + this.path + " to a tiled raster at " + file);
+            MappedRaster.write(this.readImage(source), this.type == Type.COLOR, Atlas.CONFIG.tileSize, digest, file);
+            raster = MappedRaster.open(file, digest);
+            if (raster == null) {
+                throw new IOException("could not map raster " + file);
             }
-            this.pixels[y][x++] = datum & 0xFFFFFF;
         }
+        return raster;
+    }
+
+    /**
+     * cuts the map into compressed tiles saved in the world folder for lazy storage, or opens the tiles saved there if
+     * the same image was packed before
+     */
+    private MapRaster pack(byte[] source, byte[] digest, Path worldDirectory) throws IOException {
+        Path file = this.getRasterFile(worldDirectory, "tiles", digest);
+        boolean color = this.type == Type.COLOR;
+        PackedTiles tiles = null;
+        try {
+            tiles = PackedTiles.read(file, digest, color, Atlas.CONFIG.tileSize);
+        } catch (IOException e) {
+            Atlas.LOGGER.warn("could not read packed " + this.path + " from " + file + ", packing it again", e);
+        }
+        if (tiles == null) {
+            Atlas.LOGGER.info("packing " + this.path + " into tiles at " + file);
+            tiles = PackedTiles.pack(this.readImage(source), color, Atlas.CONFIG.tileSize, digest, file);
+        }
+        // like heap storage, color maps with too many colors for a 16-bit palette keep their colors as they are
+        return tiles.hasPalette() ? new LazyPaletteRaster(this.path, tiles, getTileCache()) : new LazyRaster(this.path, tiles, getTileCache());
+    }
+
+    private MapRaster populateGrayscale(RowSource image) throws IOException {
+        int width = image.getWidth();
+        if (image.getMaxLevel() > 0xFF) {
+            short[] data = new short[width*image.getHeight()];
+            image.readRows((z, row) -> {
+                int offset = z * width;
+                for (int x = 0; x < width; x++) {
+                    data[offset + x] = (short) row[x];
+                }
+            });
+            return new ShortRaster(width, image.getHeight(), data);
+        }
+        byte[] data = new byte[width*image.getHeight()];
+        image.readRows((z, row) -> {
+            int offset = z * width;
+            for (int x = 0; x < width; x++) {
+                data[offset + x] = (byte) row[x];
+            }
+        });
+        return new ByteRaster(width, image.getHeight(), data);
+    }
+
+    private MapRaster populateColor(RowSource image) throws IOException {
+        PaletteRaster.Builder builder = new PaletteRaster.Builder(image.getWidth(), image.getHeight());
+        image.readRows((z, row) -> {
+            for (int x = 0; x < row.length; x++) {
+                row[x] &= 0xFFFFFF;
+            }
+            builder.setRow(z, row);
+        });
+        return builder.build();
+    }
+
+    /**
+     * @return whether maps keep mips, which needs mipmaps enabled and the maps on the heap, since building mips reads
+     * every pixel and would pull a mapped or lazy map into memory all at once
+     */
+    public static boolean hasMips() {
+        return Atlas.CONFIG.mipmaps && Atlas.CONFIG.storage == Storage.HEAP;
     }
 
-    public float lerp(int truncatedX, float xR, int truncatedZ, float zR) {
-        int dx = 0, dz = 0;
-        int u0 = Math.max(0, truncatedX + dx), v0 = Math.max(0, truncatedZ + dz);
-        int u1 = Math.min(getWidth()-1, u0 + 1),    v1 = Math.min(v0 + 1, getHeight()-1);
-        float i00, i01, i10, i11;
-        i00 = getPixels()[v0][u0];
-        i01 = getPixels()[v1][u0];
-        i10 = getPixels()[v0][u1];
-        i11 = getPixels()[v1][u1];
-        return (float) MathHelper.lerp2(Math.abs(xR), Math.abs(zR), i00, i10, i01, i11);
+    /**
+     * @return coarser copies of the current map, built the first time they are asked for. the pyramid's base is the
+     * raster they belong to.
+     * @throws IllegalStateException if maps keep no mips, see {@link #hasMips}
+     */
+    public MipPyramid getMips() {
+        if (!hasMips()) throw new IllegalStateException("mipmaps are disabled");
+        return this.getShared().getMips();
     }
 
     public String getPath() {
@@ -178,14 +418,34 @@ public class NamespacedMapImage {
     }
     public Type getType() {return type;}
     public int getWidth() {
-        return width;
+        return this.getRaster().getWidth();
     }
 
     public int getHeight() {
-        return height;
+        return this.getRaster().getHeight();
+    }
+
+    public int getPixel(int x, int z) {
+        return this.getRaster().get(x, z);
     }
 
-    public int[][] getPixels() {
-        return pixels;
+    public MapRaster getRaster() {
+        return this.getShared().getRaster();
+    }
+
+    private RasterRegistry.SharedRaster getShared() {
+        RasterRegistry.SharedRaster shared = this.shared;
+        if (shared == null) {
+            CompletableFuture<Void> loading = this.loading;
+            if (loading == null) {
+                throw new IllegalStateException("tried to read from an uninitialized atlas!");
+            }
+            loading.join();
+            shared = this.shared;
+            if (shared == null) {
+                throw new IllegalStateException("tried to read from a released atlas!");
+            }
+        }
+        return shared;
     }
 }
@@ -0,0 +1,285 @@
+package com.miir.atlas.world.gen;
+
+import com.miir.atlas.Atlas;
+import com.miir.atlas.world.gen.chunk.AtlasChunkGenerator;
+import com.mojang.datafixers.util.Either;
+import net.minecraft.registry.RegistryKey;
+import net.minecraft.server.MinecraftServer;
+import net.minecraft.server.command.ServerCommandSource;
+import net.minecraft.server.world.ChunkHolder;
+import net.minecraft.server.world.ChunkTicketType;
+import net.minecraft.server.world.ServerWorld;
+import net.minecraft.text.Text;
+import net.minecraft.util.Identifier;
+import net.minecraft.util.WorldSavePath;
+import net.minecraft.util.math.BlockBox;
+import net.minecraft.util.math.ChunkPos;
+import net.minecraft.util.math.ChunkSectionPos;
+import net.minecraft.world.World;
+import net.minecraft.world.chunk.Chunk;
+import net.minecraft.world.chunk.ChunkStatus;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * generates every chunk on an atlas dimension's map. chunks are visited region by region (32x32 chunks), so
+ * neighboring chunks generate together and share their neighbors' work. the number of chunks in flight adapts to the
+ * server's tick time, and progress is saved in the world folder so an interrupted run picks up where it stopped.
+ */
+public class Pregenerator {
+    private static final ChunkTicketType<ChunkPos> TICKET = ChunkTicketType.create("atlas_pregen", Comparator.comparingLong(ChunkPos::toLong));
+    private static final int REGION_SHIFT = 5;
+    private static final int REGION_AREA = 1 << (2 * REGION_SHIFT);
+    private static final long REPORT_INTERVAL = 10_000_000_000L;
+    private static final long SAVE_INTERVAL = 30_000_000_000L;
+    private static final Map<RegistryKey<World>, Pregenerator> RUNNING = new HashMap<>();
+
+    private final ServerWorld world;
+    private final Path progressFile;
+    @Nullable private ServerCommandSource source;
+    private final ChunkOrder order;
+    private final ArrayDeque<Pending> pending = new ArrayDeque<>();
+    private long next;
+    private long completed;
+    private int window;
+    private final long start = System.nanoTime();
+    private final long startCount;
+    private long lastReport = System.nanoTime(), lastSave = System.nanoTime();
+
+    private Pregenerator(ServerWorld world, AtlasChunkGenerator generator, @Nullable ServerCommandSource source) {
+        this.world = world;
+        this.source = source;
+        BlockBox bounds = generator.getMapBounds();
+        int minChunkX = ChunkSectionPos.getSectionCoord(bounds.getMinX());
+        int minChunkZ = ChunkSectionPos.getSectionCoord(bounds.getMinZ());
+        this.order = new ChunkOrder(minChunkX, minChunkZ,
+                ChunkSectionPos.getSectionCoord(bounds.getMaxX()) - minChunkX + 1,
+                ChunkSectionPos.getSectionCoord(bounds.getMaxZ()) - minChunkZ + 1);
+        Identifier id = world.getRegistryKey().getValue();
+        this.progressFile = world.getServer().getSavePath(WorldSavePath.ROOT)
+                .resolve(Atlas.MOD_ID).resolve("pregen").resolve(id.getNamespace()).resolve(id.getPath() + ".properties");
+        this.next = this.loadProgress();
+        this.completed = this.order.countBefore(this.next);
+        this.startCount = this.completed;
+        this.window = Math.max(1, Atlas.CONFIG.pregenMaxChunks / 4);
+    }
+
+    /**
+     * starts or resumes pregenerating the world, which must use an atlas chunk generator.
+     * @return false if the world is already being pregenerated
+     */
+    public static boolean start(ServerWorld world, @Nullable ServerCommandSource source) {
+        if (!(world.getChunkManager().getChunkGenerator() instanceof AtlasChunkGenerator generator)) {
+            throw new IllegalArgumentException(world.getRegistryKey().getValue() + " is not an atlas dimension");
+        }
+        if (RUNNING.containsKey(world.getRegistryKey())) return false;
+        Pregenerator pregenerator = new Pregenerator(world, generator, source);
+        RUNNING.put(world.getRegistryKey(), pregenerator);
+        pregenerator.report("pregenerating " + pregenerator.getChunkCount() + " chunks, " + pregenerator.completed + " already done");
+        return true;
+    }
+
+    /**
+     * @return false if the world was not being pregenerated
+     */
+    public static boolean stop(RegistryKey<World> world) {
+        Pregenerator pregenerator = RUNNING.remove(world);
+        if (pregenerator == null) return false;
+        pregenerator.finish();
+        pregenerator.report("paused pregeneration at " + pregenerator.completed + "/" + pregenerator.getChunkCount() + " chunks");
+        return true;
+    }
+
+    public static void stopAll() {
+        for (RegistryKey<World> world : RUNNING.keySet().toArray(RegistryKey[]::new)) {
+            stop(world);
+        }
+    }
+
+    @Nullable
+    public static Pregenerator get(RegistryKey<World> world) {
+        return RUNNING.get(world);
+    }
+
+    public static void tick(MinecraftServer server) {
+        Iterator<Pregenerator> iterator = RUNNING.values().iterator();
+        while (iterator.hasNext()) {
+            Pregenerator pregenerator = iterator.next();
+            if (pregenerator.tick(server)) {
+                iterator.remove();
+                pregenerator.finish();
+                pregenerator.report("finished pregenerating " + pregenerator.getChunkCount() + " chunks in " + formatDuration(System.nanoTime() - pregenerator.start));
+            }
+        }
+    }
+
+    // returns true once every chunk is done
+    private boolean tick(MinecraftServer server) {
+        // chunks may finish out of order; only the oldest unfinished one holds back the saved position
+        this.pending.removeIf(p -> {
+            if (!p.future.isDone()) return false;
+            this.complete(p);
+            return true;
+        });
+        if (server.getTickTime() > Atlas.CONFIG.pregenMaxMspt) {
+            this.window = Math.max(1, this.window / 2);
+        } else if (this.window < Atlas.CONFIG.pregenMaxChunks) {
+            this.window++;
+        }
+        while (this.pending.size() < this.window && this.next < this.order.getTotal()) {
+            ChunkPos pos = this.order.getChunk(this.next);
+            if (pos != null) {
+                this.world.getChunkManager().addTicket(TICKET, pos, 0, pos);
+                this.pending.addLast(new Pending(this.next, pos, this.world.getChunkManager().getChunkFutureSyncOnMainThread(pos.x, pos.z, ChunkStatus.FULL, true)));
+            }
+            this.next++;
+        }
+        long now = System.nanoTime();
+        if (now - this.lastReport > REPORT_INTERVAL) {
+            this.lastReport = now;
+            this.report(this.describe());
+        }
+        if (now - this.lastSave > SAVE_INTERVAL) {
+            this.lastSave = now;
+            this.saveProgress();
+        }
+        return this.pending.isEmpty() && this.next >= this.order.getTotal();
+    }
+
+    private void complete(Pending pending) {
+        this.world.getChunkManager().removeTicket(TICKET, pending.pos, 0, pending.pos);
+        this.completed++;
+        Either<Chunk, ChunkHolder.Unloaded> result = pending.future.getNow(null);
+        if (result == null || result.right().isPresent()) {
+            Atlas.LOGGER.warn("could not pregenerate chunk " + pending.pos + " in " + this.world.getRegistryKey().getValue());
+        }
+    }
+
+    private void finish() {
+        for (Pending pending : this.pending) {
+            this.world.getChunkManager().removeTicket(TICKET, pending.pos, 0, pending.pos);
+        }
+        this.saveProgress();
+    }
+
+    public long getChunkCount() {
+        return this.order.getChunkCount();
+    }
+
+    public String describe() {
+        double seconds = (System.nanoTime() - this.start) / 1e9;
+        double rate = (this.completed - this.startCount) / Math.max(seconds, 1e-3);
+        long remaining = this.getChunkCount() - this.completed;
+        String eta = rate > 0 ? formatDuration((long) (remaining / rate * 1e9)) : "unknown";
+        return String.format("pregenerating %s: %d/%d chunks (%.1f%%), %.1f chunks/s, %d in flight, eta %s",
+                this.world.getRegistryKey().getValue(), this.completed, this.getChunkCount(),
+                100.0 * this.completed / this.getChunkCount(), rate, this.pending.size(), eta);
+    }
+
+    private static String formatDuration(long nanos) {
+        long seconds = nanos / 1_000_000_000L;
+        return String.format("%d:%02d:%02d", seconds / 3600, seconds / 60 % 60, seconds % 60);
+    }
+
+    private void report(String message) {
+        Atlas.LOGGER.info(message);
+        if (this.source != null) {
+            this.source.sendFeedback(Text.literal(message), false);
+        }
+    }
+
+    private long loadProgress() {
+        if (Files.notExists(this.progressFile)) return 0;
+        Properties properties = new Properties();
+        try (Reader reader = Files.newBufferedReader(this.progressFile)) {
+            properties.load(reader);
+            // a different map size means a different chunk order, so the old position is meaningless
+            if (Long.parseLong(properties.getProperty("total", "-1")) != this.order.getTotal()) return 0;
+            long next = Long.parseLong(properties.getProperty("next", "0"));
+            return Math.max(0, Math.min(next, this.order.getTotal()));
+        } catch (IOException | NumberFormatException e) {
+            Atlas.LOGGER.warn("could not read pregeneration progress from " + this.progressFile + ", starting over", e);
+            return 0;
+        }
+    }
+
+    private void saveProgress() {
+        // everything before the oldest unfinished chunk is done
+        long done = this.pending.isEmpty() ? this.next : this.pending.peekFirst().index;
+        try {
+            Files.createDirectories(this.progressFile.getParent());
+            Files.writeString(this.progressFile, "total=" + this.order.getTotal() + "\nnext=" + done + "\n");
+        } catch (IOException e) {
+            Atlas.LOGGER.error("could not save pregeneration progress to " + this.progressFile, e);
+        }
+    }
+
+    /**
+     * numbers the chunks of a rectangle region by region (32x32 chunks), row by row within each region. indices run
+     * over whole regions, so those of chunks past the rectangle's edge are skipped.
+     */
+    static final class ChunkOrder {
+        private final int minChunkX, minChunkZ, width, height, regionsX;
+        private final long total;
+
+        ChunkOrder(int minChunkX, int minChunkZ, int width, int height) {
+            this.minChunkX = minChunkX;
+            this.minChunkZ = minChunkZ;
+            this.width = width;
+            this.height = height;
+            this.regionsX = (width + (1 << REGION_SHIFT) - 1) >> REGION_SHIFT;
+            int regionsZ = (height + (1 << REGION_SHIFT) - 1) >> REGION_SHIFT;
+            this.total = (long) this.regionsX * regionsZ * REGION_AREA;
+        }
+
+        // the position of the i-th chunk in region order, or null if it falls outside the map's chunks
+        @Nullable
+        ChunkPos getChunk(long index) {
+            int region = (int) (index >> (2 * REGION_SHIFT));
+            int local = (int) (index & (REGION_AREA - 1));
+            int x = ((region % this.regionsX) << REGION_SHIFT) + (local & ((1 << REGION_SHIFT) - 1));
+            int z = ((region / this.regionsX) << REGION_SHIFT) + (local >> REGION_SHIFT);
+            if (x >= this.width || z >= this.height) return null;
+            return new ChunkPos(this.minChunkX + x, this.minChunkZ + z);
+        }
+
+        // how many of the map's chunks come before the given index in region order
+        long countBefore(long index) {
+            int region = (int) (index >> (2 * REGION_SHIFT));
+            int local = (int) (index & (REGION_AREA - 1));
+            int regionX = region % this.regionsX, regionZ = region / this.regionsX;
+            int size = 1 << REGION_SHIFT;
+            long count = (long) this.width * Math.min(this.height, regionZ * size);
+            if (regionZ * size >= this.height) return count;
+            int rowHeight = Math.min(size, this.height - regionZ * size);
+            count += (long) rowHeight * Math.min(this.width, regionX * size);
+            int regionWidth = Math.min(size, this.width - regionX * size);
+            int localX = local & (size - 1), localZ = local >> REGION_SHIFT;
+            count += (long) Math.min(localZ, rowHeight) * regionWidth;
+            if (localZ < rowHeight) count += Math.min(localX, regionWidth);
+            return count;
+        }
+
+        // the number of indices, including those of chunks past the map's edge
+        long getTotal() {
+            return this.total;
+        }
+
+        long getChunkCount() {
+            return (long) this.width * this.height;
+        }
+    }
+
+    private record Pending(long index, ChunkPos pos, CompletableFuture<Either<Chunk, ChunkHolder.Unloaded>> future) {}
+}
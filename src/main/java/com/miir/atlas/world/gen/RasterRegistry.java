@@ -0,0 +1,133 @@
+package com.miir.atlas.world.gen;
+
+import com.miir.atlas.Atlas;
+import com.miir.atlas.world.gen.raster.LazyRaster;
+import com.miir.atlas.world.gen.raster.MapRaster;
+import com.miir.atlas.world.gen.raster.MipPyramid;
+import net.minecraft.util.Identifier;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * the decoded rasters of every map in use, shared between all the {@link NamespacedMapImage}s that read the same
+ * image as the same type, whichever dimension or cave layer they belong to. rasters are never written to after they
+ * are built, so every holder reads the same instance. an entry is freed once the last image holding it lets go.
+ */
+public class RasterRegistry {
+    private static final Map<Key, SharedRaster> RASTERS = new HashMap<>();
+
+    /**
+     * @return the shared raster of the given image, counting the caller as one more holder until it calls
+     * {@link #release}. the raster may not be loaded yet.
+     */
+    public static synchronized SharedRaster acquire(Identifier id, NamespacedMapImage.Type type) {
+        SharedRaster shared = RASTERS.computeIfAbsent(new Key(id, type), SharedRaster::new);
+        shared.references++;
+        return shared;
+    }
+
+    /**
+     * lets go of a raster handed out by {@link #acquire}, freeing it if nothing else holds it
+     */
+    public static synchronized void release(SharedRaster shared) {
+        if (--shared.references > 0) return;
+        RASTERS.remove(shared.key, shared);
+        shared.free();
+    }
+
+    /**
+     * @return how many distinct rasters are currently held
+     */
+    public static synchronized int size() {
+        return RASTERS.size();
+    }
+
+    private record Key(Identifier id, NamespacedMapImage.Type type) {}
+
+    /**
+     * one decoded image and its mips. loading and swapping happen while holding the entry's lock, so an image that
+     * several holders initialize at once is decoded by the first of them and the rest wait for it. mips have a lock of
+     * their own, so building them never waits for a reload to decode the next raster.
+     */
+    public static class SharedRaster {
+        private final Key key;
+        // guarded by the registry
+        private int references;
+        private volatile MapRaster raster;
+        private volatile MipPyramid mips;
+        private final Object mipsLock = new Object();
+        private byte[] digest;
+
+        private SharedRaster(Key key) {
+            this.key = key;
+        }
+
+        public Identifier getId() {
+            return this.key.id();
+        }
+
+        public synchronized boolean isLoaded() {
+            return this.raster != null;
+        }
+
+        @Nullable
+        synchronized byte[] getDigest() {
+            return this.digest;
+        }
+
+        /**
+         * swaps in a newly decoded raster for every holder. the raster it replaces stays readable, but lazily stored
+         * maps drop their tiles.
+         */
+        synchronized void set(MapRaster raster, byte[] digest) {
+            MapRaster old = this.raster;
+            this.raster = raster;
+            this.digest = digest;
+            this.mips = null;
+            if (old instanceof LazyRaster lazy) {
+                lazy.release();
+            }
+        }
+
+        @Nullable
+        public MapRaster getRaster() {
+            return this.raster;
+        }
+
+        /**
+         * @return the mips of the current raster, built by whichever caller needs them first
+         */
+        MipPyramid getMips() {
+            MapRaster raster = this.raster;
+            MipPyramid mips = this.mips;
+            if (mips != null && mips.getBase() == raster) return mips;
+            synchronized (this.mipsLock) {
+                raster = this.raster;
+                mips = this.mips;
+                if (mips == null || mips.getBase() != raster) {
+                    if (raster == null) throw new IllegalStateException("tried to build mips of a released atlas!");
+                    long start = System.nanoTime();
+                    mips = MipPyramid.build(raster, this.key.type() == NamespacedMapImage.Type.COLOR);
+                    this.mips = mips;
+                    Atlas.LOGGER.info("built mips of " + this.getId() + " in " + (System.nanoTime() - start) / 1_000_000 + " ms");
+                }
+            }
+            return mips;
+        }
+
+        private synchronized void free() {
+            if (this.raster instanceof LazyRaster lazy) {
+                try {
+                    lazy.close();
+                } catch (IOException e) {
+                    Atlas.LOGGER.warn("could not close the tiles of " + this.getId(), e);
+                }
+            }
+            this.raster = null;
+            this.mips = null;
+        }
+    }
+}
@@ -1,28 +1,51 @@
 package com.miir.atlas.world.gen.biome.source;
 
+import com.google.common.annotations.VisibleForTesting;
 import com.miir.atlas.Atlas;
+import com.miir.atlas.world.gen.GenerationMetrics;
 import com.miir.atlas.world.gen.NamespacedMapImage;
 import com.miir.atlas.world.gen.biome.BiomeEntry;
+import com.miir.atlas.world.gen.raster.IndexedRaster;
+import com.miir.atlas.world.gen.raster.MapRaster;
+import com.miir.atlas.world.gen.raster.MipPyramid;
+import com.miir.atlas.world.gen.raster.PaletteQuadtree;
+import com.mojang.datafixers.util.Pair;
 import com.mojang.serialization.Codec;
 import com.mojang.serialization.codecs.RecordCodecBuilder;
-import it.unimi.dsi.fastutil.ints.Int2ObjectArrayMap;
+import it.unimi.dsi.fastutil.ints.Int2ObjectOpenHashMap;
+import net.minecraft.registry.RegistryKeys;
 import net.minecraft.registry.entry.RegistryEntry;
+import net.minecraft.registry.tag.BiomeTags;
 import net.minecraft.server.MinecraftServer;
+import net.minecraft.util.math.BlockPos;
+import net.minecraft.util.collection.IndexedIterable;
 import net.minecraft.util.dynamic.Codecs;
 import net.minecraft.world.biome.Biome;
 import net.minecraft.world.biome.source.BiomeSource;
 import net.minecraft.world.biome.source.util.MultiNoiseUtil;
+import net.minecraft.world.WorldView;
+import net.minecraft.world.chunk.PalettedContainer;
+import org.jetbrains.annotations.Nullable;
 
 import java.io.IOException;
 import java.util.List;
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.function.Predicate;
 
 public class AtlasBiomeSource extends BiomeSource {
     private final NamespacedMapImage image;
     private final List<BiomeEntry> biomeEntries;
     private final RegistryEntry<Biome> defaultBiome;
-    private final Int2ObjectArrayMap<RegistryEntry<Biome>> biomes = new Int2ObjectArrayMap<>();
+    private final Int2ObjectOpenHashMap<RegistryEntry<Biome>> biomes = new Int2ObjectOpenHashMap<>();
+    private volatile BiomeTable table;
+    private volatile PaletteQuadtree index;
+    private IndexedIterable<RegistryEntry<Biome>> biomeIds;
     private final float horizontalScale;
+    // the mip level biomes are read from, and how many blocks one of its pixels covers
+    private final int mipLevel;
+    private final float sampleScale;
 
     protected AtlasBiomeSource(String path, List<BiomeEntry> biomes, Optional<RegistryEntry<Biome>> defaultBiome, float horizontalScale) {
         super(biomes.stream().map(BiomeEntry::getTopBiome).toList());
@@ -30,6 +53,9 @@ public class AtlasBiomeSource extends BiomeSource {
         this.biomeEntries = biomes;
         this.defaultBiome = defaultBiome.orElse(this.biomeEntries.get(0).getTopBiome());
         this.horizontalScale = horizontalScale;
+        // a biome cell is four blocks wide
+        this.mipLevel = NamespacedMapImage.hasMips() ? MipPyramid.getLevelFor(4 / horizontalScale) : 0;
+        this.sampleScale = horizontalScale * (1 << this.mipLevel);
         for (BiomeEntry entry : this.biomeEntries) {
             this.biomes.put(entry.getColor(), entry.getTopBiome());
         }
@@ -50,27 +76,216 @@ public class AtlasBiomeSource extends BiomeSource {
         return this.image.getPath();
     }
     public float getHorizontalScale() {return this.horizontalScale;}
+    @VisibleForTesting
+    public NamespacedMapImage getImage() {return this.image;}
 
     @Override
     protected Codec<AtlasBiomeSource> getCodec() {
         return CODEC;
     }
 
-    public void findBiomeMap(MinecraftServer server, String levelName) throws IOException {
-        this.image.initialize(server);
-        Atlas.LOGGER.info("found biomes for dimension " + levelName + " in a " + this.image.getWidth() + "x" + this.image.getHeight() + " map: " + getPath());
+    public CompletableFuture<Void> findBiomeMap(MinecraftServer server, String levelName, Executor executor) {
+        this.biomeIds = server.getRegistryManager().get(RegistryKeys.BIOME).getIndexedEntries();
+        GenerationMetrics metrics = GenerationMetrics.get(levelName);
+        long start = metrics.start();
+        CompletableFuture<Void> loading = this.image.initializeAsync(server, executor);
+        if (this.mipLevel > 0) {
+            // build the mips now rather than in the first chunk that reads a biome
+            loading = loading.thenRunAsync(this.image::getMips, executor);
+        }
+        return loading.thenRun(() -> {
+                    metrics.record(GenerationMetrics.Phase.MAPS, start);
+                    Atlas.LOGGER.info("found biomes for dimension " + levelName + " in a " + this.image.getWidth() + "x" + this.image.getHeight() + " map: " + getPath());
+                });
+    }
+
+    /**
+     * re-reads the biome map after a datapack reload, decoding it again only if the image changed
+     * @return whether the map changed
+     */
+    public boolean reloadBiomeMap(MinecraftServer server) throws IOException {
+        if (!this.image.reload(server)) return false;
+        Atlas.LOGGER.info("reloaded " + this.getPath() + " (" + this.image.getWidth() + "x" + this.image.getHeight() + ")");
+        // the index belongs to the old raster and is rebuilt by the next search
+        this.index = null;
+        if (this.mipLevel > 0) this.image.getMips();
+        return true;
+    }
+
+    /**
+     * lets go of the biome map, freeing its raster if no other dimension still uses it
+     */
+    public void releaseBiomeMap() {
+        this.image.release();
+        this.index = null;
+    }
+
+    /**
+     * @return the raster biomes are read from. with mipmaps, a map drawn at several pixels per biome cell is read from
+     * the level holding the most common color of those pixels, rather than whichever pixel a cell's corner lands on.
+     */
+    private MapRaster getSampled() {
+        return this.mipLevel > 0 ? this.image.getMips().getLevel(this.mipLevel) : this.image.getRaster();
+    }
+
+    /**
+     * @return the spatial index of the sampled biome map, or null if the map has no palette. the index is only built
+     * by the first search, since it reads the whole map, which would decode every tile of a lazily stored one
+     */
+    @Nullable
+    private PaletteQuadtree getIndex() {
+        if (!(this.getSampled() instanceof IndexedRaster raster)) return null;
+        PaletteQuadtree index = this.index;
+        if (index != null && index.getRaster() == raster) return index;
+        synchronized (this) {
+            index = this.index;
+            if (index == null || index.getRaster() != raster) {
+                long start = System.nanoTime();
+                index = new PaletteQuadtree(raster);
+                this.index = index;
+                Atlas.LOGGER.info("indexed biome map " + this.getPath() + " in " + (System.nanoTime() - start) / 1_000_000 + " ms");
+            }
+        }
+        return index;
+    }
+
+    @Override
+    @Nullable
+    public Pair<BlockPos, RegistryEntry<Biome>> locateBiome(BlockPos origin, int radius, int horizontalBlockCheckInterval, int verticalBlockCheckInterval, Predicate<RegistryEntry<Biome>> predicate, MultiNoiseUtil.MultiNoiseSampler noiseSampler, WorldView world) {
+        PaletteQuadtree index = this.getIndex();
+        if (index == null) {
+            return super.locateBiome(origin, radius, horizontalBlockCheckInterval, verticalBlockCheckInterval, predicate, noiseSampler, world);
+        }
+        return this.findNearest(index, origin, (int) Math.ceil(radius / sampleScale), predicate);
+    }
+
+    /**
+     * finds a spawn on land near the center of the world by searching the biome map, rather than the multi-noise
+     * parameters vanilla would use.
+     * @return null if the map has no palette or no land
+     */
+    @Nullable
+    public BlockPos findSpawnPosition() {
+        PaletteQuadtree index = this.getIndex();
+        if (index == null) return null;
+        MapRaster raster = index.getRaster();
+        Pair<BlockPos, RegistryEntry<Biome>> spawn = this.findNearest(index, BlockPos.ORIGIN, Math.max(raster.getWidth(), raster.getHeight()),
+                biome -> !biome.isIn(BiomeTags.IS_OCEAN) && !biome.isIn(BiomeTags.IS_RIVER));
+        return spawn != null ? spawn.getFirst() : null;
+    }
+
+    @Nullable
+    private Pair<BlockPos, RegistryEntry<Biome>> findNearest(PaletteQuadtree index, BlockPos origin, int radius, Predicate<RegistryEntry<Biome>> predicate) {
+        IndexedRaster raster = index.getRaster();
+        int x = Math.round(origin.getX()/sampleScale) + raster.getWidth() / 2;
+        int z = Math.round(origin.getZ()/sampleScale) + raster.getHeight() / 2;
+        boolean inside = x >= 0 && z >= 0 && x < raster.getWidth() && z < raster.getHeight();
+        if (!inside && predicate.test(this.defaultBiome)) return Pair.of(origin, this.defaultBiome);
+        RegistryEntry<Biome>[] biomes = this.buildTable(raster).biomes;
+        long[] wanted = new long[(biomes.length + 63) >> 6];
+        for (int i = 0; i < biomes.length; i++) {
+            if (predicate.test(biomes[i])) wanted[i >> 6] |= 1L << i;
+        }
+        // everything off the map is the default biome, so the map's edge competes with whatever the index finds
+        int searched = radius;
+        if (predicate.test(this.defaultBiome)) {
+            searched = Math.min(radius, Math.min(Math.min(x, z), Math.min(raster.getWidth() - 1 - x, raster.getHeight() - 1 - z)));
+        }
+        long found = index.findNearest(x, z, wanted, searched);
+        if (found == -1) {
+            if (!predicate.test(this.defaultBiome)) return null;
+            // step straight across the nearest edge, unless even that is farther than the caller wants to look
+            int dx = x < raster.getWidth() - x ? -x - 1 : raster.getWidth() - x;
+            int dz = z < raster.getHeight() - z ? -z - 1 : raster.getHeight() - z;
+            if (Math.min(Math.abs(dx), Math.abs(dz)) > radius) return null;
+            BlockPos edge = Math.abs(dx) < Math.abs(dz) ? origin.add(Math.round(dx * sampleScale), 0, 0) : origin.add(0, 0, Math.round(dz * sampleScale));
+            return Pair.of(edge, this.defaultBiome);
+        }
+        int px = (int) found, pz = (int) (found >> 32);
+        BlockPos pos = new BlockPos(Math.round((px - raster.getWidth() / 2) * sampleScale), origin.getY(), Math.round((pz - raster.getHeight() / 2) * sampleScale));
+        return Pair.of(pos, biomes[raster.getIndex(px, pz)]);
     }
 
     @Override
     public RegistryEntry<Biome> getBiome(int x, int y, int z, MultiNoiseUtil.MultiNoiseSampler noise) {
         x *=4;
         z *=4;
-        x = Math.round(x/horizontalScale);
-        z = Math.round(z/horizontalScale);
-        x += this.image.getWidth() / 2;
-        z += this.image.getHeight() / 2;
-        if (x < 0 || z < 0 || x >= this.image.getWidth() || z >= this.image.getHeight()) return this.defaultBiome;
-//        this.image.loadPixelsInRange(x, z, false, Atlas.GEN_RADIUS);
-        return this.biomes.getOrDefault(this.image.getPixels()[z][x], this.defaultBiome);
+        x = Math.round(x/sampleScale);
+        z = Math.round(z/sampleScale);
+        MapRaster raster = this.getSampled();
+        x += raster.getWidth() / 2;
+        z += raster.getHeight() / 2;
+        return this.getBiome(raster, x, z);
     }
+
+    /**
+     * the biomes of a chunk do not depend on height, so one 4x4 grid of biome cells serves every section.
+     * @return a biome container for one section of the chunk starting at the given biome coordinates, with a single
+     * value if the whole chunk is one biome. null if the biome map has not been found yet.
+     */
+    @Nullable
+    public PalettedContainer<RegistryEntry<Biome>> getBiomeColumn(int biomeX, int biomeZ) {
+        if (this.biomeIds == null) return null;
+        MapRaster raster = this.getSampled();
+        @SuppressWarnings("unchecked")
+        RegistryEntry<Biome>[] grid = new RegistryEntry[16];
+        boolean uniform = true;
+        for (int z = 0; z < 4; z++) {
+            int zR = Math.round((biomeZ + z) * 4 / sampleScale) + raster.getHeight() / 2;
+            for (int x = 0; x < 4; x++) {
+                int xR = Math.round((biomeX + x) * 4 / sampleScale) + raster.getWidth() / 2;
+                RegistryEntry<Biome> biome = this.getBiome(raster, xR, zR);
+                grid[z << 2 | x] = biome;
+                uniform &= biome == grid[0];
+            }
+        }
+        PalettedContainer<RegistryEntry<Biome>> container = new PalettedContainer<>(this.biomeIds, grid[0], PalettedContainer.PaletteProvider.BIOME);
+        if (!uniform) {
+            for (int y = 0; y < 4; y++) {
+                for (int i = 0; i < 16; i++) {
+                    container.swapUnsafe(i & 3, y, i >> 2, grid[i]);
+                }
+            }
+        }
+        return container;
+    }
+
+    /**
+     * @return a biome container holding only the given biome, or null if the biome map has not been found yet
+     */
+    @Nullable
+    public PalettedContainer<RegistryEntry<Biome>> createBiomeContainer(RegistryEntry<Biome> biome) {
+        if (this.biomeIds == null) return null;
+        return new PalettedContainer<>(this.biomeIds, biome, PalettedContainer.PaletteProvider.BIOME);
+    }
+
+    private RegistryEntry<Biome> getBiome(MapRaster raster, int x, int z) {
+        if (x < 0 || z < 0 || x >= raster.getWidth() || z >= raster.getHeight()) return this.defaultBiome;
+        if (raster instanceof IndexedRaster indexed) {
+            int index = indexed.getIndex(x, z);
+            BiomeTable table = this.table;
+            if (table == null || table.raster != indexed || index >= table.biomes.length) {
+                table = this.buildTable(indexed);
+            }
+            return table.biomes[index];
+        }
+        return this.biomes.getOrDefault(raster.get(x, z), this.defaultBiome);
+    }
+
+    // resolves every palette entry to its biome once, so lookups are two array reads
+    @SuppressWarnings("unchecked")
+    private synchronized BiomeTable buildTable(IndexedRaster raster) {
+        BiomeTable table = this.table;
+        int size = raster.getPaletteSize();
+        if (table != null && table.raster == raster && size <= table.biomes.length) return table;
+        RegistryEntry<Biome>[] biomes = new RegistryEntry[size];
+        for (int i = 0; i < size; i++) {
+            biomes[i] = this.biomes.getOrDefault(raster.getColor(i), this.defaultBiome);
+        }
+        table = new BiomeTable(raster, biomes);
+        this.table = table;
+        return table;
+    }
+
+    private record BiomeTable(IndexedRaster raster, RegistryEntry<Biome>[] biomes) {}
 }
@@ -5,6 +5,12 @@ import com.mojang.serialization.Codec;
 import com.mojang.serialization.codecs.RecordCodecBuilder;
 import org.jetbrains.annotations.Nullable;
 
+/**
+ * a layer of caves between {@code floor_height} and {@code ceiling_height}. the floor map raises the floor of each
+ * column up from {@code floor_height} and the ceiling map lowers its ceiling down from {@code ceiling_height}, like the
+ * generator's roof. wherever the two don't meet, the column is hollowed out, and flooded up to the level of the
+ * optional aquifer map, which is measured up from {@code floor_height}.
+ */
 public class CaveLayerEntry {
     private final NamespacedMapImage ceiling;
     private final NamespacedMapImage floor;
@@ -14,22 +20,27 @@ public class CaveLayerEntry {
     private final int floorHeight ;
     private final int ceilingHeight;
     private final String biomePath;
+    private final String aquiferPath;
     private final String floorPath;
     private final String ceilingPath;
     private final String name;
 
-    public CaveLayerEntry(String name, String ceilingPath, String floorPath, String biomePath, int ceilingHeight, int floorHeight, int verticalScale) {
+    public CaveLayerEntry(String name, String ceilingPath, String floorPath, String biomePath, String aquiferPath, int ceilingHeight, int floorHeight, int verticalScale) {
         this.name = name;
         this.verticalScale = verticalScale;
         this.floorHeight = floorHeight;
         this.ceilingHeight = ceilingHeight;
         this.biomePath = biomePath;
+        this.aquiferPath = aquiferPath;
         this.ceilingPath = ceilingPath;
         this.floorPath = floorPath;
         this.ceiling = new NamespacedMapImage(ceilingPath, NamespacedMapImage.Type.GRAYSCALE);
-        this.floor = new NamespacedMapImage(ceilingPath, NamespacedMapImage.Type.GRAYSCALE);
+        this.floor = new NamespacedMapImage(floorPath, NamespacedMapImage.Type.GRAYSCALE);
         if (!this.biomePath.equals("")) {
-            this.biomes = new NamespacedMapImage(ceilingPath, NamespacedMapImage.Type.COLOR);
+            this.biomes = new NamespacedMapImage(biomePath, NamespacedMapImage.Type.COLOR);
+        }
+        if (!this.aquiferPath.equals("")) {
+            this.aquifer = new NamespacedMapImage(aquiferPath, NamespacedMapImage.Type.GRAYSCALE);
         }
     }
     public static final Codec<CaveLayerEntry> CODEC = RecordCodecBuilder.create(instance -> instance.group(
@@ -37,6 +48,7 @@ public class CaveLayerEntry {
             Codec.STRING.fieldOf("ceiling").forGetter(CaveLayerEntry::ceilingPath),
             Codec.STRING.fieldOf("floor").forGetter(CaveLayerEntry::floorPath),
             Codec.STRING.optionalFieldOf("biomes", "").forGetter(CaveLayerEntry::biomePath),
+            Codec.STRING.optionalFieldOf("aquifer", "").forGetter(CaveLayerEntry::aquiferPath),
             Codec.INT.fieldOf("ceiling_height").forGetter(CaveLayerEntry::ceilingHeight),
             Codec.INT.fieldOf("floor_height").forGetter(CaveLayerEntry::floorHeight),
             Codec.INT.optionalFieldOf("vertical_scale", 0).forGetter(CaveLayerEntry::verticalScale)
@@ -45,12 +57,21 @@ public class CaveLayerEntry {
     private String getName() {return this.name;}
     private int verticalScale() {return this.verticalScale;}
     private String biomePath() {return this.biomePath;}
+    private String aquiferPath() {return this.aquiferPath;}
     private String floorPath() {return this.floorPath;}
     private String ceilingPath() {return this.ceilingPath;}
 
     public int floorHeight() {return this.floorHeight;}
     public int ceilingHeight() {return this.ceilingHeight;}
 
+    /**
+     * @param fallback the generator's vertical scale, used when the layer doesn't set its own
+     * @return how many blocks one map level spans in this layer
+     */
+    public float getVerticalScale(float fallback) {
+        return this.verticalScale != 0 ? this.verticalScale : fallback;
+    }
+
     public NamespacedMapImage getCeiling() {return this.ceiling;}
     public NamespacedMapImage getFloor() {return this.floor;}
     @Nullable public NamespacedMapImage getBiomes() {return this.biomes;}
@@ -1,9 +1,18 @@
 package com.miir.atlas.world.gen.chunk;
 
 import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.ImmutableList;
 import com.miir.atlas.Atlas;
+import com.miir.atlas.mixin.ChunkSectionAccessor;
+import com.miir.atlas.world.gen.GenerationExecutor;
+import com.miir.atlas.world.gen.GenerationMetrics;
 import com.miir.atlas.world.gen.NamespacedMapImage;
+import com.miir.atlas.world.gen.biome.source.AtlasBiomeSource;
 import com.miir.atlas.world.gen.cave.CaveLayerEntry;
+import com.miir.atlas.world.gen.jfr.ChunkPhaseEvent;
+import com.miir.atlas.world.gen.raster.MapRaster;
+import com.miir.atlas.world.gen.raster.MapSampler;
+import com.miir.atlas.world.gen.raster.MipPyramid;
 import com.mojang.serialization.Codec;
 import com.mojang.serialization.codecs.RecordCodecBuilder;
 import net.minecraft.SharedConstants;
@@ -15,6 +24,7 @@ import net.minecraft.registry.entry.RegistryEntry;
 import net.minecraft.server.MinecraftServer;
 import net.minecraft.util.Util;
 import net.minecraft.util.dynamic.Codecs;
+import net.minecraft.util.math.BlockBox;
 import net.minecraft.util.math.BlockPos;
 import net.minecraft.util.math.ChunkPos;
 import net.minecraft.util.math.MathHelper;
@@ -25,12 +35,15 @@ import net.minecraft.world.ChunkRegion;
 import net.minecraft.world.HeightLimitView;
 import net.minecraft.world.Heightmap;
 import net.minecraft.world.SpawnHelper;
+import net.minecraft.world.StructureWorldAccess;
 import net.minecraft.world.biome.Biome;
 import net.minecraft.world.biome.GenerationSettings;
 import net.minecraft.world.biome.source.BiomeAccess;
 import net.minecraft.world.biome.source.BiomeCoords;
 import net.minecraft.world.biome.source.BiomeSource;
 import net.minecraft.world.chunk.Chunk;
+import net.minecraft.world.chunk.ChunkSection;
+import net.minecraft.world.chunk.PalettedContainer;
 import net.minecraft.world.chunk.ProtoChunk;
 import net.minecraft.world.dimension.DimensionType;
 import net.minecraft.world.gen.GenerationStep;
@@ -46,11 +59,12 @@ import net.minecraft.world.gen.noise.NoiseConfig;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
 import java.util.Optional;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.Executor;
-import java.util.stream.Stream;
 
 public class AtlasChunkGenerator extends ChunkGenerator {
     private final NamespacedMapImage heightmap;
@@ -63,6 +77,15 @@ public class AtlasChunkGenerator extends ChunkGenerator {
     private final float verticalScale;
     private final float horizontalScale;
     private final ArrayList<CaveLayerEntry> caveLayers = new ArrayList<>();
+    private final ColumnCache columns = new ColumnCache(1024, this::sampleColumns);
+    private final ColumnSamples columnSamples;
+    // the mip level maps are sampled from, and a sampler for that level's pixels
+    private final int mipLevel;
+    private final MapSampler sampler;
+    private final NoiseChunkGenerator carverGenerator;
+    private final Map<RegistryEntry<Biome>, List<RegistryEntry<ConfiguredCarver<?>>>[]> carvers = new ConcurrentHashMap<>();
+    // replaced by the dimension's shared metrics once the generator knows which dimension it belongs to
+    private volatile GenerationMetrics metrics;
 
 
     public AtlasChunkGenerator(
@@ -79,39 +102,107 @@ public class AtlasChunkGenerator extends ChunkGenerator {
         this.verticalScale = verticalScale;
         if (this.verticalScale != 1) Atlas.LOGGER.warn("using non-default vertical scale for a dimension! this feature is in alpha, expect weird generation!");
         this.horizontalScale = horizontalScale;
+        this.mipLevel = NamespacedMapImage.hasMips() ? MipPyramid.getLevelFor(1 / horizontalScale) : 0;
+        this.sampler = new MapSampler(horizontalScale * (1 << this.mipLevel));
         this.heightmap = new NamespacedMapImage(heightmapPath, NamespacedMapImage.Type.GRAYSCALE);
+        this.metrics = new GenerationMetrics(heightmapPath);
         this.caveLayers.addAll(caveLayers);
         this.aquifer = !aquiferPath.equals("") ? new NamespacedMapImage(aquiferPath, NamespacedMapImage.Type.GRAYSCALE) :null;
         this.roof = !roofPath.equals("") ? new NamespacedMapImage(roofPath, NamespacedMapImage.Type.GRAYSCALE) : null;
         this.settings = settings;
+        // carvers only need a noise generator for its height limits and aquifer settings
+        this.carverGenerator = new NoiseChunkGenerator(biomeSource, settings);
+        this.columnSamples = new ColumnSamples(settings.value().generationShapeConfig().minimumY(), settings.value().generationShapeConfig().height(), settings.value().defaultBlock(), settings.value().defaultFluid());
     }
 
-    public void findMaps(MinecraftServer server, String levelName) throws IOException {
-        this.heightmap.initialize(server);
-        Atlas.LOGGER.info("found elevation data for dimension " + levelName + " in a " + this.heightmap.getWidth() + "x" + this.heightmap.getHeight() + " map: " + getPath());
+    public CompletableFuture<Void> findMaps(MinecraftServer server, String levelName, Executor executor) {
+        GenerationMetrics metrics = GenerationMetrics.get(levelName);
+        this.metrics = metrics;
+        long start = metrics.start();
+        List<CompletableFuture<Void>> loads = new ArrayList<>();
+        loads.add(this.heightmap.initializeAsync(server, executor).thenRun(() ->
+                Atlas.LOGGER.info("found elevation data for dimension " + levelName + " in a " + this.heightmap.getWidth() + "x" + this.heightmap.getHeight() + " map: " + getPath())));
         if (!this.getAquiferPath().equals("")) {
-            this.aquifer.initialize(server);
-            Atlas.LOGGER.info("found aquifer data for dimension " + levelName + " in a " + this.aquifer.getWidth() + "x" + this.aquifer.getHeight() + " map: " + getAquiferPath());
+            loads.add(this.aquifer.initializeAsync(server, executor).thenRun(() ->
+                    Atlas.LOGGER.info("found aquifer data for dimension " + levelName + " in a " + this.aquifer.getWidth() + "x" + this.aquifer.getHeight() + " map: " + getAquiferPath())));
         } else {
             Atlas.LOGGER.warn("couldn't find aquifer for dimension " + levelName + ", defaulting to sea level!");
         }
         if (!Objects.equals(this.getRoofPath(), "")) {
-            this.roof.initialize(server);
-            Atlas.LOGGER.info("found roof data for dimension " + levelName + " in a " + this.roof.getWidth() + "x" + this.roof.getHeight() + " map: " + getRoofPath());
+            loads.add(this.roof.initializeAsync(server, executor).thenRun(() ->
+                    Atlas.LOGGER.info("found roof data for dimension " + levelName + " in a " + this.roof.getWidth() + "x" + this.roof.getHeight() + " map: " + getRoofPath())));
         }
         if (this.caveLayers.size() > 0) {
             for (CaveLayerEntry layer :
                     this.caveLayers) {
-                layer.getCeiling().initialize(server);
-                layer.getFloor().initialize(server);
+                loads.add(layer.getCeiling().initializeAsync(server, executor));
+                loads.add(layer.getFloor().initializeAsync(server, executor));
                 if (layer.getBiomes() != null) {
-                    layer.getBiomes().initialize(server);
+                    loads.add(layer.getBiomes().initializeAsync(server, executor));
                 }
                 if (layer.getAquifer() != null) {
-                    layer.getAquifer().initialize(server);
+                    loads.add(layer.getAquifer().initializeAsync(server, executor));
                 }
             }
         }
+        CompletableFuture<Void> all = CompletableFuture.allOf(loads.toArray(CompletableFuture[]::new));
+        if (this.mipLevel > 0) {
+            // build the mips now rather than in the first chunk that samples them
+            all = all.thenRunAsync(() -> this.getSampledMaps().forEach(NamespacedMapImage::getMips), executor);
+        }
+        return all.thenRun(() -> metrics.record(GenerationMetrics.Phase.MAPS, start));
+    }
+
+    /**
+     * re-reads every map of this generator after a datapack reload. only maps whose image changed are decoded again.
+     * @return whether any map changed
+     */
+    public boolean reloadMaps(MinecraftServer server) throws IOException {
+        boolean changed = false;
+        for (NamespacedMapImage map : this.getMaps()) {
+            if (map.reload(server)) {
+                Atlas.LOGGER.info("reloaded " + map.getPath() + " (" + map.getWidth() + "x" + map.getHeight() + ")");
+                changed = true;
+            }
+        }
+        if (changed) {
+            if (this.mipLevel > 0) this.getSampledMaps().forEach(NamespacedMapImage::getMips);
+            this.columns.clear();
+        }
+        return changed;
+    }
+
+    /**
+     * lets go of every map of this generator, freeing the rasters no other dimension still uses
+     */
+    public void releaseMaps() {
+        for (NamespacedMapImage map : this.getMaps()) {
+            map.release();
+        }
+        this.columns.clear();
+    }
+
+    private List<NamespacedMapImage> getMaps() {
+        List<NamespacedMapImage> maps = new ArrayList<>();
+        maps.add(this.heightmap);
+        if (this.aquifer != null) maps.add(this.aquifer);
+        if (this.roof != null) maps.add(this.roof);
+        for (CaveLayerEntry layer : this.caveLayers) {
+            maps.add(layer.getCeiling());
+            maps.add(layer.getFloor());
+            if (layer.getBiomes() != null) maps.add(layer.getBiomes());
+            if (layer.getAquifer() != null) maps.add(layer.getAquifer());
+        }
+        return maps;
+    }
+
+    // the maps whose values are interpolated into columns, which excludes cave biome maps
+    private List<NamespacedMapImage> getSampledMaps() {
+        List<NamespacedMapImage> maps = this.getMaps();
+        for (CaveLayerEntry layer : this.caveLayers) {
+            if (layer.getBiomes() != null) maps.remove(layer.getBiomes());
+        }
+        return maps;
     }
 
     public static final Codec<AtlasChunkGenerator> CODEC = RecordCodecBuilder.create(instance -> instance.group(
@@ -133,19 +224,80 @@ public class AtlasChunkGenerator extends ChunkGenerator {
 
     private int getCeilingHeight() {return this.ceilingHeight;}
 
+    /**
+     * @return how long this generator's phases took, shared with everything else in its dimension
+     */
+    public GenerationMetrics getMetrics() {return this.metrics;}
+
+    @VisibleForTesting
+    public NamespacedMapImage getHeightmap() {return this.heightmap;}
+
     private String getRoofPath() {return this.roof == null ? "" : (this.roof.getPath());}
     private String getAquiferPath() {return this.aquifer == null ? "" : (this.aquifer.getPath());}
 
+    /**
+     * @return the raster to sample a map from. with mipmaps, a map drawn at several pixels per block is read from the
+     * level averaging its pixels down to about one per block, rather than skipping most of them.
+     */
+    private MapRaster getSampled(NamespacedMapImage nmi) {
+        return this.mipLevel > 0 ? nmi.getMips().getLevel(this.mipLevel) : nmi.getRaster();
+    }
     private double getFromMap(int x, int z, NamespacedMapImage nmi) {
-        float xR = (x/horizontalScale);
-        float zR = (z/horizontalScale);
-        xR += nmi.getWidth()  / 2f; // these will always be even numbers
-        zR += nmi.getHeight() / 2f;
-        if (xR < 0 || zR < 0 || xR >= nmi.getWidth() || zR >= nmi.getHeight()) return -1;
-        int truncatedX = (int)Math.floor(xR);
-        int truncatedZ = (int)Math.floor(zR);
-        double d = nmi.lerp(truncatedX, xR-truncatedX, truncatedZ, zR-truncatedZ);
-        return this.verticalScale*d+minimumY;
+        MapRaster raster = this.getSampled(nmi);
+        return this.toElevation(this.sampler.sample(raster, x, z), raster);
+    }
+    private double toElevation(float sample, MapRaster raster) {
+        return sample == MapSampler.OUTSIDE ? -1 : this.verticalScale*toLevel(sample, raster)+minimumY;
+    }
+    // levels of 16-bit maps are scaled down so their white is as high as the white of an 8-bit map
+    private static double toLevel(float sample, MapRaster raster) {
+        return sample == MapSampler.OUTSIDE ? -1 : sample * 255.0 / raster.getMaxLevel();
+    }
+    private ColumnCache.Columns sampleColumns(int chunkX, int chunkZ) {
+        int startX = chunkX << 4;
+        int startZ = chunkZ << 4;
+        float[] samples = new float[256];
+        double[] elevation = this.sampleColumns(startX, startZ, this.heightmap, samples);
+        double[] aquifer = this.aquifer != null ? this.sampleColumns(startX, startZ, this.aquifer, samples) : null;
+        double[] roof = this.roof != null ? this.sampleColumns(startX, startZ, this.roof, samples) : null;
+        ColumnCache.CaveColumns[] caves = new ColumnCache.CaveColumns[this.caveLayers.size()];
+        for (int l = 0; l < caves.length; l++) {
+            CaveLayerEntry layer = this.caveLayers.get(l);
+            caves[l] = new ColumnCache.CaveColumns(
+                    this.sampleLevels(startX, startZ, layer.getFloor(), samples),
+                    this.sampleLevels(startX, startZ, layer.getCeiling(), samples),
+                    layer.getAquifer() != null ? this.sampleLevels(startX, startZ, layer.getAquifer(), samples) : null);
+        }
+        return new ColumnCache.Columns(chunkX, chunkZ, elevation, aquifer, roof, caves);
+    }
+    private double[] sampleColumns(int startX, int startZ, NamespacedMapImage nmi, float[] samples) {
+        // samples are laid out z-major, like ColumnCache.Columns#index
+        MapRaster raster = this.getSampled(nmi);
+        this.sampler.sample(raster, startX, startZ, 16, 16, samples);
+        double[] values = new double[256];
+        for (int i = 0; i < 256; i++) {
+            values[i] = this.toElevation(samples[i], raster);
+        }
+        return values;
+    }
+
+    private double[] sampleLevels(int startX, int startZ, NamespacedMapImage nmi, float[] samples) {
+        MapRaster raster = this.getSampled(nmi);
+        this.sampler.sample(raster, startX, startZ, 16, 16, samples);
+        double[] levels = new double[256];
+        for (int i = 0; i < 256; i++) {
+            levels[i] = toLevel(samples[i], raster);
+        }
+        return levels;
+    }
+
+    private void loadChunkPixels(int x, int z, NamespacedMapImage nmi) {
+        // the pixels a chunk's columns interpolate between, plus one for the far edge of the last column
+        int x0 = (int) Math.floor(x / horizontalScale + nmi.getWidth() / 2f);
+        int z0 = (int) Math.floor(z / horizontalScale + nmi.getHeight() / 2f);
+        int x1 = (int) Math.floor((x + 15) / horizontalScale + nmi.getWidth() / 2f) + 1;
+        int z1 = (int) Math.floor((z + 15) / horizontalScale + nmi.getHeight() / 2f) + 1;
+        nmi.loadPixelsInRange(x0, z0, x1, z1);
     }
     public float getVerticalScale() {return this.verticalScale;}
     public float getHorizontalScale() {return this.horizontalScale;}
@@ -160,48 +312,138 @@ public class AtlasChunkGenerator extends ChunkGenerator {
     @Override
     public CompletableFuture<Chunk> populateBiomes(Executor executor, NoiseConfig noiseConfig, Blender blender, StructureAccessor structureAccessor, Chunk chunk) {
         return CompletableFuture.supplyAsync(Util.debugSupplier("init_biomes", () -> {
-            chunk.populateBiomes(this.biomeSource, noiseConfig.getMultiNoiseSampler());
+            GenerationMetrics metrics = this.metrics;
+            long start = metrics.start();
+            ChunkPhaseEvent event = ChunkPhaseEvent.start();
+            if (!(this.biomeSource instanceof AtlasBiomeSource atlasBiomeSource) || !this.populateBiomes(atlasBiomeSource, chunk, noiseConfig)) {
+                chunk.populateBiomes(this.biomeSource, noiseConfig.getMultiNoiseSampler());
+            }
+            metrics.record(GenerationMetrics.Phase.BIOMES, start);
+            event.finish(metrics.getDimension(), GenerationMetrics.Phase.BIOMES, chunk.getPos());
             return chunk;
-        }), Util.getMainWorkerExecutor());
+        }), GenerationExecutor.get(executor));
+    }
+
+    private boolean populateBiomes(AtlasBiomeSource biomeSource, Chunk chunk, NoiseConfig noiseConfig) {
+        ChunkPos pos = chunk.getPos();
+        int biomeX = BiomeCoords.fromBlock(pos.getStartX()), biomeZ = BiomeCoords.fromBlock(pos.getStartZ());
+        // nobody will see the biomes of an empty chunk, so one lookup is enough
+        PalettedContainer<RegistryEntry<Biome>> column = this.getCoverage(pos.x, pos.z) == Coverage.OUTSIDE
+                ? biomeSource.createBiomeContainer(biomeSource.getBiome(biomeX, 0, biomeZ, noiseConfig.getMultiNoiseSampler()))
+                : biomeSource.getBiomeColumn(biomeX, biomeZ);
+        if (column == null) return false;
+        for (ChunkSection section : chunk.getSectionArray()) {
+            ((ChunkSectionAccessor) section).setBiomeContainer(column.copy());
+        }
+        return true;
     }
 
     @Override
     @SuppressWarnings("deprecation")
     public void carve(ChunkRegion chunkRegion, long seed, NoiseConfig noiseConfig, BiomeAccess biomeAccess, StructureAccessor structureAccessor, Chunk chunk2, GenerationStep.Carver carverStep) {
+        ChunkPos chunkPos = chunk2.getPos();
+        // chunks off the map are empty, so there is nothing to carve
+        if (this.getCoverage(chunkPos.x, chunkPos.z) == Coverage.OUTSIDE) return;
+        GenerationMetrics metrics = this.metrics;
+        long start = metrics.start();
+        ChunkPhaseEvent event = ChunkPhaseEvent.start();
         BiomeAccess biomeAccess2 = biomeAccess.withSource((biomeX, biomeY, biomeZ) -> this.biomeSource.getBiome(biomeX, biomeY, biomeZ, noiseConfig.getMultiNoiseSampler()));
         ChunkRandom chunkRandom = new ChunkRandom(new CheckedRandom(RandomSeed.getSeed()));
         int i = 8;
-        ChunkPos chunkPos = chunk2.getPos();
         ChunkNoiseSampler chunkNoiseSampler = chunk2.getOrCreateChunkNoiseSampler(chunk -> this.createChunkNoiseSampler(chunk, structureAccessor, Blender.getBlender(chunkRegion), noiseConfig));
         AquiferSampler aquiferSampler = chunkNoiseSampler.getAquiferSampler();
-        CarverContext carverContext = new CarverContext(new NoiseChunkGenerator(this.biomeSource, this.settings)/*lmao*/, chunkRegion.getRegistryManager(), chunk2.getHeightLimitView(), chunkNoiseSampler, noiseConfig, this.settings.value().surfaceRule());
+        CarverContext carverContext = null;
         CarvingMask carvingMask = ((ProtoChunk)chunk2).getOrCreateCarvingMask(carverStep);
         for (int j = -i; j <= i; ++j) {
             for (int k = -i; k <= i; ++k) {
-                ChunkPos chunkPos2 = new ChunkPos(chunkPos.x + j, chunkPos.z + k);
-                Chunk chunk22 = chunkRegion.getChunk(chunkPos2.x, chunkPos2.z);
-                GenerationSettings generationSettings = chunk22.getOrCreateGenerationSettings(() -> this.getGenerationSettings(this.biomeSource.getBiome(BiomeCoords.fromBlock(chunkPos2.getStartX()), 0, BiomeCoords.fromBlock(chunkPos2.getStartZ()), noiseConfig.getMultiNoiseSampler())));
-                Iterable<RegistryEntry<ConfiguredCarver<?>>> iterable = generationSettings.getCarversForStep(carverStep);
-                int l = 0;
-                for (RegistryEntry<ConfiguredCarver<?>> registryEntry : iterable) {
-                    ConfiguredCarver<?> configuredCarver = registryEntry.value();
+                int neighborX = chunkPos.x + j, neighborZ = chunkPos.z + k;
+                if (this.getCoverage(neighborX, neighborZ) == Coverage.OUTSIDE) continue;
+                // generation settings only depend on the biome at the chunk's corner, so neighbors need not be loaded
+                RegistryEntry<Biome> biome = this.biomeSource.getBiome(BiomeCoords.fromChunk(neighborX), 0, BiomeCoords.fromChunk(neighborZ), noiseConfig.getMultiNoiseSampler());
+                List<RegistryEntry<ConfiguredCarver<?>>> carvers = this.getCarvers(biome, carverStep);
+                if (carvers.isEmpty()) continue;
+                if (carverContext == null) {
+                    carverContext = new CarverContext(this.carverGenerator, chunkRegion.getRegistryManager(), chunk2.getHeightLimitView(), chunkNoiseSampler, noiseConfig, this.settings.value().surfaceRule());
+                }
+                ChunkPos chunkPos2 = new ChunkPos(neighborX, neighborZ);
+                for (int l = 0; l < carvers.size(); l++) {
+                    ConfiguredCarver<?> configuredCarver = carvers.get(l).value();
                     chunkRandom.setCarverSeed(seed + (long)l, chunkPos2.x, chunkPos2.z);
                     if (configuredCarver.shouldCarve(chunkRandom)) {
                         configuredCarver.carve(carverContext, chunk2, biomeAccess2::getBiome, chunkRandom, aquiferSampler, chunkPos2, carvingMask);
                     }
-                    ++l;
                 }
             }
         }
+        metrics.record(GenerationMetrics.Phase.CARVE, start);
+        event.finish(metrics.getDimension(), GenerationMetrics.Phase.CARVE, chunkPos);
+    }
+
+    private List<RegistryEntry<ConfiguredCarver<?>>> getCarvers(RegistryEntry<Biome> biome, GenerationStep.Carver step) {
+        return this.carvers.computeIfAbsent(biome, b -> {
+            GenerationSettings settings = this.getGenerationSettings(b);
+            GenerationStep.Carver[] steps = GenerationStep.Carver.values();
+            @SuppressWarnings("unchecked")
+            List<RegistryEntry<ConfiguredCarver<?>>>[] carvers = new List[steps.length];
+            for (GenerationStep.Carver s : steps) {
+                carvers[s.ordinal()] = ImmutableList.copyOf(settings.getCarversForStep(s));
+            }
+            return carvers;
+        })[step.ordinal()];
+    }
+
+    /**
+     * @return the blocks whose columns lie on the heightmap
+     */
+    public BlockBox getMapBounds() {
+        MapRaster raster = this.heightmap.getRaster();
+        int minX = (int) Math.ceil(-raster.getWidth() / 2f * horizontalScale);
+        int minZ = (int) Math.ceil(-raster.getHeight() / 2f * horizontalScale);
+        int maxX = (int) Math.ceil(raster.getWidth() / 2f * horizontalScale) - 1;
+        int maxZ = (int) Math.ceil(raster.getHeight() / 2f * horizontalScale) - 1;
+        return new BlockBox(minX, this.getMinimumY(), minZ, maxX, this.getMinimumY() + this.getWorldHeight() - 1, maxZ);
+    }
+
+    /**
+     * @return whether all, some or none of the chunk's columns lie on the heightmap
+     */
+    public Coverage getCoverage(int chunkX, int chunkZ) {
+        MapRaster raster = this.heightmap.getRaster();
+        float x0 = (chunkX << 4)/horizontalScale + raster.getWidth() / 2f;
+        float z0 = (chunkZ << 4)/horizontalScale + raster.getHeight() / 2f;
+        float x1 = ((chunkX << 4) + 15)/horizontalScale + raster.getWidth() / 2f;
+        float z1 = ((chunkZ << 4) + 15)/horizontalScale + raster.getHeight() / 2f;
+        if (x1 < 0 || z1 < 0 || x0 >= raster.getWidth() || z0 >= raster.getHeight()) return Coverage.OUTSIDE;
+        if (x0 >= 0 && z0 >= 0 && x1 < raster.getWidth() && z1 < raster.getHeight()) return Coverage.INSIDE;
+        return Coverage.EDGE;
+    }
+
+    public enum Coverage {
+        INSIDE,
+        EDGE,
+        /** the chunk is empty */
+        OUTSIDE
+    }
+
+    @Override
+    public void generateFeatures(StructureWorldAccess world, Chunk chunk, StructureAccessor structureAccessor) {
+        // an empty chunk has nothing for features to build on, but structures reaching into it still need their pieces
+        if (this.getCoverage(chunk.getPos().x, chunk.getPos().z) == Coverage.OUTSIDE && !chunk.hasStructureReferences()) return;
+        super.generateFeatures(world, chunk, structureAccessor);
     }
 
     @Override
     public void buildSurface(ChunkRegion region, StructureAccessor structures, NoiseConfig noiseConfig, Chunk chunk) {
-        if (SharedConstants.isOutsideGenerationArea(chunk.getPos())) {
+        if (SharedConstants.isOutsideGenerationArea(chunk.getPos()) || this.getCoverage(chunk.getPos().x, chunk.getPos().z) == Coverage.OUTSIDE) {
             return;
         }
+        GenerationMetrics metrics = this.metrics;
+        long start = metrics.start();
+        ChunkPhaseEvent event = ChunkPhaseEvent.start();
         HeightContext heightContext = new HeightContext(this, region);
         this.buildSurface(chunk, heightContext, noiseConfig, structures, region.getBiomeAccess(), region.getRegistryManager().get(RegistryKeys.BIOME), Blender.getBlender(region));
+        metrics.record(GenerationMetrics.Phase.SURFACE, start);
+        event.finish(metrics.getDimension(), GenerationMetrics.Phase.SURFACE, chunk.getPos());
     }
 
     @VisibleForTesting
@@ -214,10 +456,16 @@ public class AtlasChunkGenerator extends ChunkGenerator {
     @Override
     public void populateEntities(ChunkRegion region) {
         ChunkPos chunkPos = region.getCenterPos();
+        if (this.getCoverage(chunkPos.x, chunkPos.z) == Coverage.OUTSIDE) return;
+        GenerationMetrics metrics = this.metrics;
+        long start = metrics.start();
+        ChunkPhaseEvent event = ChunkPhaseEvent.start();
         RegistryEntry<Biome> registryEntry = region.getBiome(chunkPos.getStartPos().withY(region.getTopY() - 1));
         ChunkRandom chunkRandom = new ChunkRandom(new CheckedRandom(RandomSeed.getSeed()));
         chunkRandom.setPopulationSeed(region.getSeed(), chunkPos.getStartX(), chunkPos.getStartZ());
         SpawnHelper.populateEntities(region, registryEntry, chunkPos, chunkRandom);
+        metrics.record(GenerationMetrics.Phase.ENTITIES, start);
+        event.finish(metrics.getDimension(), GenerationMetrics.Phase.ENTITIES, chunkPos);
     }
 
     @Override
@@ -232,78 +480,93 @@ public class AtlasChunkGenerator extends ChunkGenerator {
         if (k <= 0) {
             return CompletableFuture.completedFuture(chunk);
         }
+        if (this.getCoverage(chunk.getPos().x, chunk.getPos().z) == Coverage.OUTSIDE) return CompletableFuture.completedFuture(chunk);
         int x = chunk.getPos().x << 4;
         int z = chunk.getPos().z << 4;
-        float xR = (x/horizontalScale);
-        float zR = (z/horizontalScale);
-        xR += this.heightmap.getWidth()  / 2f; // these will always be even numbers
-        zR += this.heightmap.getHeight() / 2f;
-        int truncatedX = (int)Math.floor(xR);
-        int truncatedZ = (int)Math.floor(zR);
-        if (truncatedX < 0 || truncatedZ < 0 || truncatedX >= this.heightmap.getWidth() || truncatedZ >= this.heightmap.getHeight()) return CompletableFuture.completedFuture(chunk);
-        this.heightmap.loadPixelsInRange(truncatedX, truncatedZ, true, Atlas.GEN_RADIUS);
-        if (this.aquifer != null) this.aquifer.loadPixelsInRange(truncatedX, truncatedZ, true, Atlas.GEN_RADIUS);
-        return CompletableFuture.supplyAsync(Util.debugSupplier("wgen_fill_noise", () -> this.populateNoise(chunk)), Util.getMainWorkerExecutor());
+        return CompletableFuture.supplyAsync(Util.debugSupplier("wgen_fill_noise", () -> {
+            GenerationMetrics metrics = this.metrics;
+            long start = metrics.start();
+            ChunkPhaseEvent event = ChunkPhaseEvent.start();
+            this.loadChunkPixels(x, z, this.heightmap);
+            if (this.aquifer != null) this.loadChunkPixels(x, z, this.aquifer);
+            if (this.roof != null) this.loadChunkPixels(x, z, this.roof);
+            for (CaveLayerEntry layer : this.caveLayers) {
+                this.loadChunkPixels(x, z, layer.getFloor());
+                this.loadChunkPixels(x, z, layer.getCeiling());
+                if (layer.getAquifer() != null) this.loadChunkPixels(x, z, layer.getAquifer());
+            }
+            this.populateNoise(chunk);
+            metrics.record(GenerationMetrics.Phase.NOISE, start);
+            event.finish(metrics.getDimension(), GenerationMetrics.Phase.NOISE, chunk.getPos());
+            return chunk;
+        }), GenerationExecutor.get(executor));
     }
     private Chunk populateNoise(Chunk chunk) {
-        int minY = settings.value().generationShapeConfig().minimumY();
-        Heightmap oceanHeightmap = chunk.getHeightmap(Heightmap.Type.OCEAN_FLOOR_WG);
-        Heightmap surfaceHeightmap = chunk.getHeightmap(Heightmap.Type.WORLD_SURFACE_WG);
-        BlockState defaultBlock = this.settings.value().defaultBlock();
-        BlockState defaultFluid = this.settings.value().defaultFluid();
-        int offsetX = chunk.getPos().x << 4;
-        int offsetZ = chunk.getPos().z << 4;
-        BlockPos.Mutable mutable = new BlockPos.Mutable();
-        for (int x = 0; x < 16; x++) {
-            mutable.setX(x);
-            for (int z = 0; z < 16; z++) {
-                mutable.setZ(z);
-                int seaLevel = this.getSeaLevel(x, z);
-                int elevation = (int) Math.min(this.getFromMap(x+offsetX, z+offsetZ, this.heightmap), this.minimumY+this.getWorldHeight());
-                if (elevation != -1 && elevation >= minY) {
-                    for (int y = minY; y < elevation; y++) {
-                        mutable.setY(y);
-                        chunk.setBlockState(mutable, defaultBlock, false);
-                    }
-                    if (defaultBlock.getLuminance() != 0 && chunk instanceof ProtoChunk) {
-                        ((ProtoChunk)chunk).addLightSource(mutable);
-                    }
-                    if (elevation < seaLevel) {
-                        for (int y = elevation; y < seaLevel; y++) {
-                            mutable.setY(y);
-                            chunk.setBlockState(mutable, defaultFluid, false);
-                            chunk.markBlockForPostProcessing(mutable);
-                        }
-                        surfaceHeightmap.trackUpdate(x, elevation, z, defaultFluid);
-                    } else {
-                        surfaceHeightmap.trackUpdate(x, elevation, z, defaultBlock);
-                    }
-                    oceanHeightmap.trackUpdate(x, elevation, z, defaultBlock);
-
-                }
-                if (this.roof != null) {
-                    float r = this.ceilingHeight - (float) this.getFromMap(x+offsetX, z+offsetZ, this.roof);
-                    for (int y = this.ceilingHeight; y > r; y--) {
-                        mutable.setY(y);
-                        chunk.setBlockState(new BlockPos(x+offsetX, y, z+offsetZ), defaultBlock, false);
-                    }
-                    surfaceHeightmap.trackUpdate(x, this.ceilingHeight, z, defaultBlock);
+        ChunkGeneratorSettings settings = this.settings.value();
+        int minY = settings.generationShapeConfig().minimumY();
+        BlockState defaultBlock = settings.defaultBlock();
+        BlockState defaultFluid = settings.defaultFluid();
+        ColumnCache.Columns columns = this.columns.get(chunk.getPos().x, chunk.getPos().z);
+        // terrain, sea and roof, then a cave and its water for every layer
+        ColumnSpans spans = new ColumnSpans(3 + 2 * this.caveLayers.size());
+        for (int i = 0; i < 256; i++) {
+            int seaLevel = this.getSeaLevel(columns, i);
+            int elevation = (int) Math.min(columns.elevation[i], this.minimumY+this.getWorldHeight());
+            if (elevation != -1 && elevation >= minY) {
+                spans.add(i, minY, elevation, defaultBlock);
+                if (elevation < seaLevel) {
+                    spans.add(i, elevation, seaLevel, defaultFluid);
                 }
             }
+            if (this.roof != null) {
+                float r = this.ceilingHeight - (float) columns.roof[i];
+                spans.add(i, (int) Math.floor(r) + 1, this.ceilingHeight + 1, defaultBlock);
+            }
+            // caves go in last, so they hollow out the terrain, the sea and the roof alike
+            for (int l = 0; l < columns.caves.length; l++) {
+                this.addCave(spans, i, this.caveLayers.get(l), columns.caves[l], defaultFluid);
+            }
         }
+        // writing the spans also updates the worldgen heightmaps, roof and caves included
+        spans.write(chunk);
         return chunk;
     }
 
+    private void addCave(ColumnSpans spans, int i, CaveLayerEntry layer, ColumnCache.CaveColumns cave, BlockState fluid) {
+        if (cave.floor[i] == -1 || cave.ceiling[i] == -1) return;
+        float scale = layer.getVerticalScale(this.verticalScale);
+        int floor = (int) (layer.floorHeight() + scale * cave.floor[i]);
+        int ceiling = (int) Math.floor(layer.ceilingHeight() - scale * cave.ceiling[i]) + 1;
+        if (floor >= ceiling) return;
+        spans.add(i, floor, ceiling, Blocks.AIR.getDefaultState());
+        if (cave.aquifer != null && cave.aquifer[i] != -1) {
+            spans.add(i, floor, Math.min(ceiling, (int) (layer.floorHeight() + scale * cave.aquifer[i])), fluid);
+        }
+    }
+
     @Override
     public int getSeaLevel() {
         return this.seaLevel;
     }
     public int getSeaLevel(int x, int z) {
         if (this.aquifer != null) {
+            ColumnCache.Columns columns = this.columns.peek(x >> 4, z >> 4);
+            if (columns != null) return this.getSeaLevel(columns, ColumnCache.Columns.index(x, z));
             return (int) Math.min(Math.max(this.getFromMap(x, z, this.aquifer), this.seaLevel), this.minimumY+this.getWorldHeight());
         }
         return seaLevel;
     }
+    private int getSeaLevel(ColumnCache.Columns columns, int i) {
+        if (columns.aquifer != null) {
+            return (int) Math.min(Math.max(columns.aquifer[i], this.seaLevel), this.minimumY+this.getWorldHeight());
+        }
+        return seaLevel;
+    }
+
+    private double getElevation(int x, int z) {
+        ColumnCache.Columns columns = this.columns.peek(x >> 4, z >> 4);
+        return columns != null ? columns.elevation[ColumnCache.Columns.index(x, z)] : this.getFromMap(x, z, this.heightmap);
+    }
 
     @Override
     public int getMinimumY() {
@@ -312,30 +575,43 @@ public class AtlasChunkGenerator extends ChunkGenerator {
 
     @Override
     public int getHeight(int x, int z, Heightmap.Type heightmap, HeightLimitView world, NoiseConfig noiseConfig) {
-        return (int) ((
-                        heightmap == Heightmap.Type.OCEAN_FLOOR_WG || heightmap == Heightmap.Type.OCEAN_FLOOR)
-                        ? this.getFromMap(x, z, this.heightmap)
-                        : Math.max(this.seaLevel, this.getFromMap(x, z, this.heightmap)));
+        return this.toHeight(this.getElevation(x, z), heightmap);
     }
 
-    @Override
-    public VerticalBlockSample getColumnSample(int x, int z, HeightLimitView world, NoiseConfig noiseConfig) {
-        int elevation = (int) this.getFromMap(x, z, this.heightmap);
-        int seaLevel = this.getSeaLevel(x, z);
-        if (elevation <= 0) return new VerticalBlockSample(0, new BlockState[]{Blocks.AIR.getDefaultState()});
-        if (elevation < seaLevel) {
-            return new VerticalBlockSample(
-                    this.settings.value().generationShapeConfig().minimumY(),
-                    Stream.concat(
-                            Stream.generate(() -> this.settings.value().defaultBlock()).limit(elevation),
-                            Stream.generate(() -> this.settings.value().defaultFluid()).limit(seaLevel - elevation)
-            ).toArray(BlockState[]::new));
+    /**
+     * fills {@code out} with the heights of a {@code sizeX} by {@code sizeZ} area, row by row, as {@link #getHeight}
+     * would report them. chunks already in the column cache are read from it, and the rest of the area is sampled
+     * one chunk-sized block at a time rather than one column at a time.
+     */
+    public void getHeights(int startX, int startZ, int sizeX, int sizeZ, Heightmap.Type heightmap, int[] out) {
+        MapRaster raster = this.getSampled(this.heightmap);
+        float[] samples = new float[256];
+        for (int chunkZ = startZ >> 4; chunkZ <= (startZ + sizeZ - 1) >> 4; chunkZ++) {
+            int z0 = Math.max(startZ, chunkZ << 4), z1 = Math.min(startZ + sizeZ, (chunkZ << 4) + 16);
+            for (int chunkX = startX >> 4; chunkX <= (startX + sizeX - 1) >> 4; chunkX++) {
+                int x0 = Math.max(startX, chunkX << 4), x1 = Math.min(startX + sizeX, (chunkX << 4) + 16);
+                ColumnCache.Columns columns = this.columns.peek(chunkX, chunkZ);
+                if (columns == null) this.sampler.sample(raster, x0, z0, x1 - x0, z1 - z0, samples);
+                for (int z = z0, i = 0; z < z1; z++) {
+                    for (int x = x0; x < x1; x++, i++) {
+                        double elevation = columns != null ? columns.elevation[ColumnCache.Columns.index(x, z)] : this.toElevation(samples[i], raster);
+                        out[(z - startZ) * sizeX + x - startX] = this.toHeight(elevation, heightmap);
+                    }
+                }
+            }
         }
-            return new VerticalBlockSample(
-                    this.settings.value().generationShapeConfig().minimumY(),
-                    Stream.generate(() -> this.settings.value().defaultBlock()).limit(elevation).toArray(BlockState[]::new)
+    }
 
-            );
+    private int toHeight(double elevation, Heightmap.Type heightmap) {
+        boolean floor = heightmap == Heightmap.Type.OCEAN_FLOOR_WG || heightmap == Heightmap.Type.OCEAN_FLOOR;
+        return (int) (floor ? elevation : Math.max(this.seaLevel, elevation));
+    }
+
+    @Override
+    public VerticalBlockSample getColumnSample(int x, int z, HeightLimitView world, NoiseConfig noiseConfig) {
+        int elevation = (int) Math.min(this.getElevation(x, z), this.minimumY+this.getWorldHeight());
+        if (elevation == -1 || elevation < this.getMinimumY()) return ColumnSamples.EMPTY;
+        return this.columnSamples.get(elevation, this.getSeaLevel(x, z));
     }
 
     @Override
@@ -353,7 +629,10 @@ public class AtlasChunkGenerator extends ChunkGenerator {
         return (x, y, z) -> {
             if (y < Math.min(-54, i)) {
                 return fluidLevel;
-            } else if (this.getFromMap(x, z, this.heightmap) < (this.aquifer == null ? this.seaLevel : this.getFromMap(x, z, this.aquifer))) {
+            }
+            ColumnCache.Columns columns = this.columns.get(x >> 4, z >> 4);
+            int index = ColumnCache.Columns.index(x, z);
+            if (columns.elevation[index] < (columns.aquifer == null ? this.seaLevel : columns.aquifer[index])) {
                 return fluidLevel2;
             }
             return fluidLevel3;
@@ -0,0 +1,113 @@
+package com.miir.atlas.world.gen.chunk;
+
+import it.unimi.dsi.fastutil.HashCommon;
+import net.minecraft.util.math.ChunkPos;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * remembers the map values of recently generated chunks' columns, so noise filling, sea level lookups and the fluid
+ * sampler read each map once per column instead of once per query. queries that spill into a neighboring chunk
+ * (carvers, aquifers) share that chunk's entry.
+ */
+public class ColumnCache {
+    private final AtomicReferenceArray<Entry> slots;
+    private final int mask;
+    private final Sampler sampler;
+    private volatile int epoch;
+
+    public ColumnCache(int size, Sampler sampler) {
+        if (Integer.bitCount(size) != 1) throw new IllegalArgumentException("column cache size must be a power of two");
+        this.slots = new AtomicReferenceArray<>(size);
+        this.mask = size - 1;
+        this.sampler = sampler;
+    }
+
+    public Columns get(int chunkX, int chunkZ) {
+        Columns columns = this.peek(chunkX, chunkZ);
+        if (columns == null) {
+            // racing threads may both sample the same chunk; the results are identical, so either one can win.
+            // the entry keeps the epoch read before sampling, so a sample that straddled a clear is never served
+            int epoch = this.epoch;
+            columns = this.sampler.sample(chunkX, chunkZ);
+            this.slots.set(this.slot(chunkX, chunkZ), new Entry(epoch, columns));
+        }
+        return columns;
+    }
+
+    /**
+     * @return the chunk's columns if they were already sampled, without sampling them otherwise
+     */
+    @Nullable
+    public Columns peek(int chunkX, int chunkZ) {
+        Entry entry = this.slots.get(this.slot(chunkX, chunkZ));
+        if (entry == null || entry.epoch != this.epoch) return null;
+        Columns columns = entry.columns;
+        return columns.chunkX == chunkX && columns.chunkZ == chunkZ ? columns : null;
+    }
+
+    /**
+     * forgets every chunk, including any being sampled right now
+     */
+    public synchronized void clear() {
+        this.epoch++;
+        for (int i = 0; i < this.slots.length(); i++) {
+            this.slots.set(i, null);
+        }
+    }
+
+    private int slot(int chunkX, int chunkZ) {
+        return (int) HashCommon.mix(ChunkPos.toLong(chunkX, chunkZ)) & this.mask;
+    }
+
+    private record Entry(int epoch, Columns columns) {}
+
+    @FunctionalInterface
+    public interface Sampler {
+        Columns sample(int chunkX, int chunkZ);
+    }
+
+    /**
+     * raw map values for the 16x16 columns of one chunk, indexed by {@link #index}. a map value of -1 means the
+     * column lies outside that map.
+     */
+    public static class Columns {
+        public final int chunkX;
+        public final int chunkZ;
+        public final double[] elevation;
+        @Nullable public final double[] aquifer;
+        @Nullable public final double[] roof;
+        /** one entry per cave layer, in the generator's order */
+        public final CaveColumns[] caves;
+
+        public Columns(int chunkX, int chunkZ, double[] elevation, @Nullable double[] aquifer, @Nullable double[] roof, CaveColumns[] caves) {
+            this.chunkX = chunkX;
+            this.chunkZ = chunkZ;
+            this.elevation = elevation;
+            this.aquifer = aquifer;
+            this.roof = roof;
+            this.caves = caves;
+        }
+
+        public static int index(int x, int z) {
+            return (z & 15) << 4 | (x & 15);
+        }
+    }
+
+    /**
+     * the map levels of one cave layer, scaled to 0-255 whatever the image's bit depth. a level of -1 means the
+     * column lies outside that map.
+     */
+    public static class CaveColumns {
+        public final double[] floor;
+        public final double[] ceiling;
+        @Nullable public final double[] aquifer;
+
+        public CaveColumns(double[] floor, double[] ceiling, @Nullable double[] aquifer) {
+            this.floor = floor;
+            this.ceiling = ceiling;
+            this.aquifer = aquifer;
+        }
+    }
+}
@@ -0,0 +1,63 @@
+package com.miir.atlas.world.gen.chunk;
+
+import it.unimi.dsi.fastutil.longs.Long2ObjectMap;
+import it.unimi.dsi.fastutil.longs.Long2ObjectMaps;
+import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
+import net.minecraft.block.BlockState;
+import net.minecraft.block.Blocks;
+import net.minecraft.world.gen.chunk.VerticalBlockSample;
+
+import java.util.Arrays;
+
+/**
+ * column samples depend only on a column's elevation and sea level, so each distinct pair is built once and handed
+ * out to every caller. callers must treat the samples as read-only, as vanilla's structure and spawn code does.
+ */
+public class ColumnSamples {
+    private static final int MAX_FLOODED = 4096;
+    public static final VerticalBlockSample EMPTY = new VerticalBlockSample(0, new BlockState[]{Blocks.AIR.getDefaultState()});
+
+    private final int minY;
+    private final BlockState block;
+    private final BlockState fluid;
+    private final VerticalBlockSample[] dry;
+    private final Long2ObjectMap<VerticalBlockSample> flooded = Long2ObjectMaps.synchronize(new Long2ObjectOpenHashMap<>());
+
+    public ColumnSamples(int minY, int height, BlockState block, BlockState fluid) {
+        this.minY = minY;
+        this.block = block;
+        this.fluid = fluid;
+        this.dry = new VerticalBlockSample[height + 1];
+    }
+
+    /**
+     * @param elevation the y above the highest solid block, at least {@code minY}
+     * @param seaLevel the y above the highest fluid block
+     */
+    public VerticalBlockSample get(int elevation, int seaLevel) {
+        int solid = Math.min(elevation - this.minY, this.dry.length - 1);
+        if (elevation >= seaLevel) {
+            VerticalBlockSample sample = this.dry[solid];
+            if (sample == null) {
+                BlockState[] states = new BlockState[solid];
+                Arrays.fill(states, this.block);
+                // racing threads build equal samples, so losing one is harmless
+                sample = new VerticalBlockSample(this.minY, states);
+                this.dry[solid] = sample;
+            }
+            return sample;
+        }
+        long key = (long) elevation << 32 | (seaLevel & 0xFFFFFFFFL);
+        VerticalBlockSample sample = this.flooded.get(key);
+        if (sample == null) {
+            int total = Math.min(seaLevel - this.minY, this.dry.length - 1);
+            BlockState[] states = new BlockState[total];
+            Arrays.fill(states, 0, solid, this.block);
+            Arrays.fill(states, solid, total, this.fluid);
+            sample = new VerticalBlockSample(this.minY, states);
+            if (this.flooded.size() >= MAX_FLOODED) this.flooded.clear();
+            this.flooded.put(key, sample);
+        }
+        return sample;
+    }
+}
@@ -0,0 +1,152 @@
+package com.miir.atlas.world.gen.chunk;
+
+import net.minecraft.block.Block;
+import net.minecraft.block.BlockState;
+import net.minecraft.block.Blocks;
+import net.minecraft.util.math.BlockPos;
+import net.minecraft.util.math.ChunkSectionPos;
+import net.minecraft.world.Heightmap;
+import net.minecraft.world.chunk.Chunk;
+import net.minecraft.world.chunk.ChunkSection;
+import net.minecraft.world.chunk.PalettedContainer;
+import net.minecraft.world.chunk.ProtoChunk;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * the terrain of one chunk described as vertical spans of a single block state per column, written section by
+ * section. sections that come out as a single state everywhere get a single-value palette instead of 4096 writes.
+ * spans added later paint over earlier ones, and air spans clear whatever is below them.
+ */
+public class ColumnSpans {
+    private final int maxSpans;
+    private final int[] bottoms;
+    private final int[] tops;
+    private final BlockState[] states;
+    private final int[] counts = new int[256];
+
+    /**
+     * @param maxSpans how many spans any one column may hold
+     */
+    public ColumnSpans(int maxSpans) {
+        this.maxSpans = maxSpans;
+        this.bottoms = new int[256 * maxSpans];
+        this.tops = new int[256 * maxSpans];
+        this.states = new BlockState[256 * maxSpans];
+    }
+
+    /**
+     * @param column the column index, as in {@link ColumnCache.Columns#index}
+     * @param bottom the lowest y of the span
+     * @param top the y above the highest block of the span
+     */
+    public void add(int column, int bottom, int top, BlockState state) {
+        if (bottom >= top) return;
+        int n = this.counts[column];
+        if (n == this.maxSpans) throw new IllegalStateException("too many spans in column " + column);
+        int i = column * this.maxSpans + n;
+        this.bottoms[i] = bottom;
+        this.tops[i] = top;
+        this.states[i] = state;
+        this.counts[column] = n + 1;
+    }
+
+    /**
+     * @return the state at the given height, or null if nothing was placed there
+     */
+    @Nullable
+    public BlockState getState(int column, int y) {
+        for (int i = column * this.maxSpans + this.counts[column] - 1; i >= column * this.maxSpans; i--) {
+            if (y >= this.bottoms[i] && y < this.tops[i]) {
+                return this.states[i].isAir() ? null : this.states[i];
+            }
+        }
+        return null;
+    }
+
+    public void write(Chunk chunk) {
+        ChunkSection[] sections = chunk.getSectionArray();
+        BlockPos.Mutable mutable = new BlockPos.Mutable();
+        for (int index = 0; index < sections.length; index++) {
+            int sectionY = chunk.sectionIndexToCoord(index);
+            int bottom = ChunkSectionPos.getBlockCoord(sectionY);
+            ChunkSection section = sections[index];
+            BlockState uniform = this.getUniformState(bottom, bottom + 16);
+            if (uniform != null && section.isEmpty()) {
+                if (uniform.isAir()) continue;
+                sections[index] = new ChunkSection(sectionY, new PalettedContainer<>(Block.STATE_IDS, uniform, PalettedContainer.PaletteProvider.BLOCK_STATE), section.getBiomeContainer());
+                if (needsTracking(uniform)) {
+                    for (int column = 0; column < 256; column++) {
+                        for (int y = bottom; y < bottom + 16; y++) {
+                            this.track(chunk, mutable, column, y, uniform);
+                        }
+                    }
+                }
+                continue;
+            }
+            for (int column = 0; column < 256; column++) {
+                for (int y = bottom; y < bottom + 16; y++) {
+                    BlockState state = this.getState(column, y);
+                    if (state == null) continue;
+                    section.setBlockState(column & 15, y & 15, column >> 4, state, false);
+                    if (needsTracking(state)) {
+                        this.track(chunk, mutable, column, y, state);
+                    }
+                }
+            }
+        }
+        this.updateHeightmap(chunk, Heightmap.Type.OCEAN_FLOOR_WG);
+        this.updateHeightmap(chunk, Heightmap.Type.WORLD_SURFACE_WG);
+    }
+
+    private static boolean needsTracking(BlockState state) {
+        return !state.getFluidState().isEmpty() || state.getLuminance() > 0;
+    }
+
+    // the bookkeeping Chunk#setBlockState would have done for fluids and light sources
+    private void track(Chunk chunk, BlockPos.Mutable mutable, int column, int y, BlockState state) {
+        mutable.set(column & 15, y, column >> 4);
+        if (!state.getFluidState().isEmpty()) {
+            chunk.markBlockForPostProcessing(mutable);
+        }
+        if (state.getLuminance() > 0 && chunk instanceof ProtoChunk protoChunk) {
+            protoChunk.addLightSource(new BlockPos(chunk.getPos().getStartX() + (column & 15), y, chunk.getPos().getStartZ() + (column >> 4)));
+        }
+    }
+
+    @Nullable
+    private BlockState getUniformState(int bottom, int top) {
+        BlockState uniform = null;
+        for (int column = 0; column < 256; column++) {
+            for (int i = column * this.maxSpans; i < column * this.maxSpans + this.counts[column]; i++) {
+                if (this.bottoms[i] > bottom && this.bottoms[i] < top || this.tops[i] > bottom && this.tops[i] < top) {
+                    return null;
+                }
+            }
+            BlockState state = this.getState(column, bottom);
+            if (state == null) state = Blocks.AIR.getDefaultState();
+            if (uniform == null) {
+                uniform = state;
+            } else if (uniform != state) {
+                return null;
+            }
+        }
+        return uniform;
+    }
+
+    private void updateHeightmap(Chunk chunk, Heightmap.Type type) {
+        Heightmap heightmap = chunk.getHeightmap(type);
+        for (int column = 0; column < 256; column++) {
+            int top = chunk.getBottomY();
+            for (int i = column * this.maxSpans; i < column * this.maxSpans + this.counts[column]; i++) {
+                top = Math.max(top, this.tops[i]);
+            }
+            for (int y = Math.min(top, chunk.getTopY()) - 1; y >= chunk.getBottomY(); y--) {
+                BlockState state = this.getState(column, y);
+                if (state != null && type.getBlockPredicate().test(state)) {
+                    heightmap.trackUpdate(column & 15, y, column >> 4, state);
+                    break;
+                }
+            }
+        }
+    }
+}
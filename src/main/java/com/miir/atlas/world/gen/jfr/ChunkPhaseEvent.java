@@ -0,0 +1,52 @@
+package com.miir.atlas.world.gen.jfr;
+
+import com.miir.atlas.world.gen.GenerationMetrics;
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import net.minecraft.util.math.ChunkPos;
+
+/**
+ * one generation phase of one chunk in an atlas dimension
+ */
+@Name("atlas.ChunkPhase")
+@Label("Chunk Generation Phase")
+@Category("Atlas")
+@Description("One phase of generating a chunk in an atlas dimension")
+@Enabled(false)
+@StackTrace(false)
+public class ChunkPhaseEvent extends jdk.jfr.Event {
+    @Label("Dimension")
+    public String dimension;
+
+    @Label("Phase")
+    public String phase;
+
+    @Label("Chunk X")
+    public int chunkX;
+
+    @Label("Chunk Z")
+    public int chunkZ;
+
+    public static ChunkPhaseEvent start() {
+        ChunkPhaseEvent event = new ChunkPhaseEvent();
+        event.begin();
+        return event;
+    }
+
+    /**
+     * ends the event and commits it if a recording wants it. the fields are only filled in then.
+     */
+    public void finish(String dimension, GenerationMetrics.Phase phase, ChunkPos pos) {
+        this.end();
+        if (!this.shouldCommit()) return;
+        this.dimension = dimension;
+        this.phase = phase.getName();
+        this.chunkX = pos.x;
+        this.chunkZ = pos.z;
+        this.commit();
+    }
+}
@@ -0,0 +1,36 @@
+package com.miir.atlas.world.gen.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * one map being decoded into its raster, or for mapped and lazy storage, being opened
+ */
+@Name("atlas.MapDecode")
+@Label("Map Decode")
+@Category("Atlas")
+@Description("An atlas map being decoded or opened")
+@Enabled(false)
+@StackTrace(false)
+public class MapDecodeEvent extends jdk.jfr.Event {
+    @Label("Path")
+    public String path;
+
+    @Label("Storage")
+    public String storage;
+
+    @Label("Width")
+    public int width;
+
+    @Label("Height")
+    public int height;
+
+    @Label("Image Size")
+    @DataAmount
+    public long bytes;
+}
@@ -0,0 +1,37 @@
+package com.miir.atlas.world.gen.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * tiles of a lazily stored map being decoded for a rectangle of pixels. only committed if a tile had to be decoded.
+ */
+@Name("atlas.TileLoad")
+@Label("Tile Load")
+@Category("Atlas")
+@Description("Tiles of a lazily stored atlas map being decoded")
+@Enabled(false)
+@StackTrace(false)
+public class TileLoadEvent extends jdk.jfr.Event {
+    @Label("Path")
+    public String path;
+
+    @Label("Tiles")
+    public int tiles;
+
+    @Label("Min X")
+    public int minX;
+
+    @Label("Min Z")
+    public int minZ;
+
+    @Label("Max X")
+    public int maxX;
+
+    @Label("Max Z")
+    public int maxZ;
+}
@@ -0,0 +1,34 @@
+package com.miir.atlas.world.gen.raster;
+
+public class ByteRaster implements MapRaster {
+    private final int width;
+    private final int height;
+    private final byte[] data;
+
+    public ByteRaster(int width, int height, byte[] data) {
+        if (data.length != width * height) throw new IllegalArgumentException("raster data does not match a " + width + "x" + height + " map");
+        this.width = width;
+        this.height = height;
+        this.data = data;
+    }
+
+    @Override
+    public int get(int x, int z) {
+        return this.data[z * this.width + x] & 0xFF;
+    }
+
+    @Override
+    public void getRow(int x, int z, int count, int[] out) {
+        int offset = z * this.width + x;
+        for (int i = 0; i < count; i++) {
+            out[i] = this.data[offset + i] & 0xFF;
+        }
+    }
+
+    @Override
+    public int getWidth() {return this.width;}
+    @Override
+    public int getHeight() {return this.height;}
+    @Override
+    public long getSizeInBytes() {return this.data.length;}
+}
@@ -0,0 +1,30 @@
+package com.miir.atlas.world.gen.raster;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+
+public class ImageRowSource implements RowSource {
+    private final BufferedImage image;
+    private final int width;
+    private final int height;
+
+    public ImageRowSource(BufferedImage image, int width, int height) {
+        this.image = image;
+        this.width = width;
+        this.height = height;
+    }
+
+    @Override
+    public void readRows(RowConsumer consumer) throws IOException {
+        int[] row = new int[this.width];
+        for (int z = 0; z < this.height; z++) {
+            this.image.getRGB(0, z, this.width, 1, row, 0, this.width);
+            consumer.accept(z, row);
+        }
+    }
+
+    @Override
+    public int getWidth() {return this.width;}
+    @Override
+    public int getHeight() {return this.height;}
+}
@@ -0,0 +1,17 @@
+package com.miir.atlas.world.gen.raster;
+
+/**
+ * a color map that stores a palette index per pixel, so callers can resolve colors to their own lookup tables once
+ * per palette entry instead of once per pixel. indices are dense and start at 0.
+ */
+public interface IndexedRaster extends MapRaster {
+    int getIndex(int x, int z);
+
+    /**
+     * @return the number of palette entries. this only ever grows for rasters that decode lazily, and covers every
+     * index this raster has returned so far.
+     */
+    int getPaletteSize();
+
+    int getColor(int index);
+}
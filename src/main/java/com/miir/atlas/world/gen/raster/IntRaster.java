@@ -0,0 +1,31 @@
+package com.miir.atlas.world.gen.raster;
+
+public class IntRaster implements MapRaster {
+    private final int width;
+    private final int height;
+    private final int[] data;
+
+    public IntRaster(int width, int height, int[] data) {
+        if (data.length != width * height) throw new IllegalArgumentException("raster data does not match a " + width + "x" + height + " map");
+        this.width = width;
+        this.height = height;
+        this.data = data;
+    }
+
+    @Override
+    public int get(int x, int z) {
+        return this.data[z * this.width + x];
+    }
+
+    @Override
+    public void getRow(int x, int z, int count, int[] out) {
+        System.arraycopy(this.data, z * this.width + x, out, 0, count);
+    }
+
+    @Override
+    public int getWidth() {return this.width;}
+    @Override
+    public int getHeight() {return this.height;}
+    @Override
+    public long getSizeInBytes() {return 4L * this.data.length;}
+}
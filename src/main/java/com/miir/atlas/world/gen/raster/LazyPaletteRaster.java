@@ -0,0 +1,31 @@
+package com.miir.atlas.world.gen.raster;
+
+/**
+ * a lazily decoded color map with at most 65536 colors, whose tiles hold palette indices. the palette fills in as
+ * tiles are decoded, so indices stay dense but their order depends on which tiles were read first.
+ */
+public class LazyPaletteRaster extends LazyRaster implements IndexedRaster {
+    public LazyPaletteRaster(String name, PackedTiles packed, TileCache cache) {
+        super(name, packed, cache, new Palette());
+        if (!packed.hasPalette()) throw new IllegalArgumentException(name + " has more than 65536 colors");
+    }
+
+    @Override
+    public int getIndex(int x, int z) {
+        return super.getIndex(x, z);
+    }
+
+    public Palette getPalette() {
+        return this.palette;
+    }
+
+    @Override
+    public int getPaletteSize() {
+        return this.palette.size();
+    }
+
+    @Override
+    public int getColor(int index) {
+        return this.palette.get(index);
+    }
+}
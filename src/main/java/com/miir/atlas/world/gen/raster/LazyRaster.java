@@ -0,0 +1,279 @@
+package com.miir.atlas.world.gen.raster;
+
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * a raster that keeps only the tile offsets of an image's {@link PackedTiles} in memory and reads and inflates square
+ * tiles the first time they are read. decoded tiles count against a shared {@link TileCache} and are dropped again
+ * when they go cold. color maps keep 24-bit colors in their tiles; see {@link LazyPaletteRaster} for ones that fit a
+ * palette.
+ * <p>
+ * each tile slot is empty, {@link Loading} while one thread decodes it, or the decoded {@link Tile}. a thread claims
+ * an empty slot with a compare-and-set, so every tile is decoded by exactly one thread while others wait for it;
+ * reads of decoded tiles are a single volatile load.
+ */
+public class LazyRaster implements MapRaster {
+    private final String name;
+    private final PackedTiles packed;
+    private final boolean color;
+    // a 16-bit grayscale map, whose levels are kept in the index arrays
+    private final boolean wide;
+    private final int width;
+    private final int height;
+    private final int tileSize;
+    private final int tileShift;
+    private final int tileMask;
+    private final int tilesX;
+    // null, Loading or Tile
+    private final AtomicReferenceArray<Object> tiles;
+    @Nullable final Palette palette;
+    private final TileCache cache;
+
+    public LazyRaster(String name, PackedTiles packed, TileCache cache) {
+        this(name, packed, cache, null);
+    }
+
+    LazyRaster(String name, PackedTiles packed, TileCache cache, @Nullable Palette palette) {
+        this.name = name;
+        this.packed = packed;
+        this.color = packed.isColor();
+        this.wide = !this.color && packed.getBytesPerSample() == 2;
+        this.width = packed.getWidth();
+        this.height = packed.getHeight();
+        this.tileSize = packed.getTileSize();
+        this.tileShift = Integer.numberOfTrailingZeros(this.tileSize);
+        this.tileMask = this.tileSize - 1;
+        this.tilesX = (this.width + this.tileSize - 1) / this.tileSize;
+        int tilesZ = (this.height + this.tileSize - 1) / this.tileSize;
+        this.tiles = new AtomicReferenceArray<>(this.tilesX * tilesZ);
+        this.palette = palette;
+        this.cache = cache;
+    }
+
+    @Override
+    public int get(int x, int z) {
+        Tile tile = this.getTile(x, z);
+        int i = ((z & this.tileMask) << this.tileShift) + (x & this.tileMask);
+        if (tile.levels != null) return tile.levels[i] & 0xFF;
+        if (tile.colors != null) return tile.colors[i];
+        return this.palette != null ? this.palette.get(tile.indices[i] & 0xFFFF) : tile.indices[i] & 0xFFFF;
+    }
+
+    // the palette index of a pixel of a palettized color map
+    int getIndex(int x, int z) {
+        Tile tile = this.getTile(x, z);
+        return tile.indices[((z & this.tileMask) << this.tileShift) + (x & this.tileMask)] & 0xFFFF;
+    }
+
+    private Tile getTile(int x, int z) {
+        int index = (z >> this.tileShift) * this.tilesX + (x >> this.tileShift);
+        Tile tile = this.tiles.get(index) instanceof Tile ready ? ready : this.load(index);
+        if (!tile.referenced) tile.referenced = true;
+        return tile;
+    }
+
+    /**
+     * decodes every tile overlapping the given pixel rectangle (inclusive) that is not resident yet. tiles other
+     * threads are already decoding are waited for after the rest of the rectangle is done.
+     * @return how many tiles were not resident
+     */
+    public int load(int x0, int z0, int x1, int z1) {
+        int missing = 0;
+        List<Loading> pending = null;
+        for (int tz = Math.max(0, z0) >> this.tileShift; tz <= Math.min(this.height - 1, z1) >> this.tileShift; tz++) {
+            for (int tx = Math.max(0, x0) >> this.tileShift; tx <= Math.min(this.width - 1, x1) >> this.tileShift; tx++) {
+                int index = tz * this.tilesX + tx;
+                Object slot = this.tiles.get(index);
+                if (slot instanceof Tile) continue;
+                missing++;
+                if (slot == null) {
+                    Loading loading = new Loading();
+                    if (this.tiles.compareAndSet(index, null, loading)) {
+                        this.decode(index, loading);
+                        continue;
+                    }
+                    slot = this.tiles.get(index);
+                }
+                if (slot instanceof Loading loading) {
+                    if (pending == null) pending = new ArrayList<>();
+                    pending.add(loading);
+                }
+            }
+        }
+        if (pending != null) {
+            for (Loading loading : pending) {
+                loading.await();
+            }
+        }
+        return missing;
+    }
+
+    private Tile load(int index) {
+        while (true) {
+            Object slot = this.tiles.get(index);
+            if (slot instanceof Tile tile) return tile;
+            if (slot instanceof Loading loading) return loading.await();
+            Loading loading = new Loading();
+            if (this.tiles.compareAndSet(index, null, loading)) {
+                return this.decode(index, loading);
+            }
+        }
+    }
+
+    // decodes a tile this thread claimed and hands it to everyone waiting for it
+    private Tile decode(int index, Loading loading) {
+        Tile tile;
+        try {
+            tile = this.decode(index);
+        } catch (IOException | RuntimeException e) {
+            RuntimeException failure = e instanceof RuntimeException r ? r : new UncheckedIOException("could not decode tile " + index + " of " + this.name, (IOException) e);
+            // the slot is emptied so a later read tries again
+            this.tiles.compareAndSet(index, loading, null);
+            loading.result.completeExceptionally(failure);
+            throw failure;
+        }
+        // a release while decoding emptied the slot; the tile still serves this read and those waiting on it
+        if (this.tiles.compareAndSet(index, loading, tile)) {
+            this.cache.onLoad(new Resident(this, index, tile));
+        }
+        loading.result.complete(tile);
+        return tile;
+    }
+
+    /**
+     * drops every decoded tile, for when the raster has been replaced. reads after this decode tiles again.
+     */
+    public void release() {
+        this.cache.onRelease(this);
+        for (int i = 0; i < this.tiles.length(); i++) {
+            if (this.tiles.getAndSet(i, null) instanceof Tile tile) this.cache.onEvict(tile.getSizeInBytes());
+        }
+    }
+
+    /**
+     * drops every decoded tile and closes the tile file, for when nothing reads the raster anymore
+     */
+    public void close() throws IOException {
+        this.release();
+        this.packed.close();
+    }
+
+    private Tile decode(int index) throws IOException {
+        int area = this.tileSize * this.tileSize;
+        byte[] samples = new byte[area * this.packed.getBytesPerSample()];
+        this.packed.unpack(index, samples);
+        if (!this.color && !this.wide) return new Tile(samples, null, null);
+        if (this.palette == null && this.color) {
+            int[] colors = new int[area];
+            for (int i = 0; i < area; i++) {
+                colors[i] = (samples[3 * i] & 0xFF) << 16 | (samples[3 * i + 1] & 0xFF) << 8 | samples[3 * i + 2] & 0xFF;
+            }
+            return new Tile(null, null, colors);
+        }
+        short[] indices = new short[area];
+        if (this.wide) {
+            for (int i = 0; i < area; i++) {
+                indices[i] = (short) ((samples[2 * i] & 0xFF) << 8 | samples[2 * i + 1] & 0xFF);
+            }
+            return new Tile(null, indices, null);
+        }
+        // only the pixels inside the map are palettized, so the padding of edge tiles never adds a color
+        int w = Math.min(this.tileSize, this.width - ((index % this.tilesX) << this.tileShift));
+        int h = Math.min(this.tileSize, this.height - ((index / this.tilesX) << this.tileShift));
+        int lastColor = -1, lastIndex = -1;
+        for (int z = 0; z < h; z++) {
+            int offset = z << this.tileShift;
+            for (int x = 0; x < w; x++) {
+                int i = 3 * (offset + x);
+                int c = (samples[i] & 0xFF) << 16 | (samples[i + 1] & 0xFF) << 8 | samples[i + 2] & 0xFF;
+                if (c != lastColor) {
+                    lastColor = c;
+                    lastIndex = this.palette.indexOf(c);
+                    if (lastIndex > 0xFFFF) throw new IOException(this.name + " has more than 65536 colors");
+                }
+                indices[offset + x] = (short) lastIndex;
+            }
+        }
+        return new Tile(null, indices, null);
+    }
+
+    @Override
+    public int getWidth() {return this.width;}
+    @Override
+    public int getHeight() {return this.height;}
+    @Override
+    public int getMaxLevel() {return this.wide ? 0xFFFF : 0xFF;}
+    @Override
+    public long getSizeInBytes() {
+        long size = this.packed.getSizeInBytes();
+        for (int i = 0; i < this.tiles.length(); i++) {
+            if (this.tiles.get(i) instanceof Tile tile) size += tile.getSizeInBytes();
+        }
+        return size;
+    }
+
+    private static class Tile {
+        private final byte[] levels;
+        private final short[] indices;
+        private final int[] colors;
+        // set by reads, cleared by the cache's clock; new tiles start out marked so a bulk load keeps them for a pass
+        private volatile boolean referenced = true;
+
+        private Tile(byte[] levels, short[] indices, int[] colors) {
+            this.levels = levels;
+            this.indices = indices;
+            this.colors = colors;
+        }
+
+        private long getSizeInBytes() {
+            if (this.levels != null) return this.levels.length;
+            return this.indices != null ? 2L * this.indices.length : 4L * this.colors.length;
+        }
+    }
+
+    // a tile one thread is decoding, which the others wait on instead of decoding it again
+    private static class Loading {
+        private final CompletableFuture<Tile> result = new CompletableFuture<>();
+
+        private Tile await() {
+            try {
+                return this.result.join();
+            } catch (CompletionException e) {
+                throw e.getCause() instanceof RuntimeException cause ? cause : e;
+            }
+        }
+    }
+
+    record Resident(LazyRaster raster, int index, Tile tile) {
+        boolean isResident() {
+            return this.raster.tiles.get(this.index) == this.tile;
+        }
+
+        /**
+         * @return whether the tile was read since the last call
+         */
+        boolean clearReferenced() {
+            if (!this.tile.referenced) return false;
+            this.tile.referenced = false;
+            return true;
+        }
+
+        void evict() {
+            if (this.raster.tiles.compareAndSet(this.index, this.tile, null)) {
+                this.raster.cache.onEvict(this.tile.getSizeInBytes());
+            }
+        }
+
+        long getSizeInBytes() {
+            return this.tile.getSizeInBytes();
+        }
+    }
+}
@@ -0,0 +1,30 @@
+package com.miir.atlas.world.gen.raster;
+
+/**
+ * a decoded map image. values are grayscale levels or 24-bit colors, depending on the map type.
+ */
+public interface MapRaster {
+    int getWidth();
+    int getHeight();
+    int get(int x, int z);
+    /**
+     * @return the number of heap bytes this raster keeps resident
+     */
+    long getSizeInBytes();
+
+    /**
+     * @return the value of the highest grayscale level, 255 unless the map was read from a 16-bit image
+     */
+    default int getMaxLevel() {
+        return 0xFF;
+    }
+
+    /**
+     * copies {@code count} values of row {@code z}, starting at column {@code x}, into {@code out}.
+     */
+    default void getRow(int x, int z, int count, int[] out) {
+        for (int i = 0; i < count; i++) {
+            out[i] = this.get(x + i, z);
+        }
+    }
+}
@@ -0,0 +1,106 @@
+package com.miir.atlas.world.gen.raster;
+
+import java.util.Arrays;
+
+/**
+ * bilinear sampling of a centered map at block positions, in fixed point. block x lands on map position
+ * {@code x / horizontalScale + width / 2}; because that is affine, a row of blocks is a start position plus a constant
+ * step, so whole rows are sampled from two prefetched raster rows without any per-column division or rounding.
+ * at a horizontal scale of 1 every sample lands on a pixel and is returned exactly.
+ */
+public class MapSampler {
+    // map positions keep 32 fraction bits, interpolation weights use 16
+    private static final int FRACTION_BITS = 32;
+    private static final long ONE = 1L << FRACTION_BITS;
+    private static final long FRACTION_MASK = ONE - 1;
+    private static final int WEIGHT_BITS = 16;
+    public static final float OUTSIDE = -1;
+
+    private final double step;
+    private final boolean unscaled;
+
+    public MapSampler(float horizontalScale) {
+        this.step = ONE / (double) horizontalScale;
+        this.unscaled = horizontalScale == 1;
+    }
+
+    private long position(int block, int size) {
+        return Math.round(block * this.step) + ((long) size << (FRACTION_BITS - 1));
+    }
+
+    /**
+     * @return the interpolated map value at the block position, or {@link #OUTSIDE}
+     */
+    public float sample(MapRaster raster, int x, int z) {
+        long u = this.position(x, raster.getWidth());
+        long v = this.position(z, raster.getHeight());
+        if (u < 0 || v < 0) return OUTSIDE;
+        int u0 = (int) (u >> FRACTION_BITS), v0 = (int) (v >> FRACTION_BITS);
+        if (u0 >= raster.getWidth() || v0 >= raster.getHeight()) return OUTSIDE;
+        int u1 = Math.min(raster.getWidth() - 1, u0 + 1), v1 = Math.min(v0 + 1, raster.getHeight() - 1);
+        return interpolate(raster.get(u0, v0), raster.get(u1, v0), raster.get(u0, v1), raster.get(u1, v1), weight(u), weight(v));
+    }
+
+    /**
+     * fills {@code out[z * sizeX + x]} with the samples of a {@code sizeX} by {@code sizeZ} block area.
+     */
+    public void sample(MapRaster raster, int startX, int startZ, int sizeX, int sizeZ, float[] out) {
+        int width = raster.getWidth(), height = raster.getHeight();
+        // columns [first, last) of the area land on the map; their positions are the same for every row
+        long[] u = new long[sizeX];
+        int first = sizeX, last = 0;
+        for (int x = 0; x < sizeX; x++) {
+            u[x] = this.position(startX + x, width);
+            if (u[x] >= 0 && u[x] >> FRACTION_BITS < width) {
+                first = Math.min(first, x);
+                last = x + 1;
+            }
+        }
+        if (first >= last) {
+            Arrays.fill(out, 0, sizeX * sizeZ, OUTSIDE);
+            return;
+        }
+        int uMin = (int) (u[first] >> FRACTION_BITS);
+        int span = Math.min(width - 1, (int) (u[last - 1] >> FRACTION_BITS) + 1) - uMin + 1;
+        int[] top = new int[span], bottom = new int[span];
+        for (int z = 0; z < sizeZ; z++) {
+            int offset = z * sizeX;
+            long v = this.position(startZ + z, height);
+            int v0 = (int) (v >> FRACTION_BITS);
+            if (v < 0 || v0 >= height) {
+                Arrays.fill(out, offset, offset + sizeX, OUTSIDE);
+                continue;
+            }
+            Arrays.fill(out, offset, offset + first, OUTSIDE);
+            Arrays.fill(out, offset + last, offset + sizeX, OUTSIDE);
+            int fv = weight(v);
+            raster.getRow(uMin, v0, span, top);
+            if (this.unscaled) {
+                // every column lands on a pixel
+                for (int x = first; x < last; x++) out[offset + x] = top[x - first];
+                continue;
+            }
+            if (fv != 0) raster.getRow(uMin, Math.min(v0 + 1, height - 1), span, bottom);
+            for (int x = first; x < last; x++) {
+                int i0 = (int) (u[x] >> FRACTION_BITS) - uMin;
+                int i1 = Math.min(i0 + 1, span - 1);
+                int fu = weight(u[x]);
+                out[offset + x] = fv == 0
+                        ? interpolate(top[i0], top[i1], 0, 0, fu, 0)
+                        : interpolate(top[i0], top[i1], bottom[i0], bottom[i1], fu, fv);
+            }
+        }
+    }
+
+    private static int weight(long position) {
+        return (int) ((position & FRACTION_MASK) >>> (FRACTION_BITS - WEIGHT_BITS));
+    }
+
+    private static float interpolate(int i00, int i10, int i01, int i11, int fu, int fv) {
+        if ((fu | fv) == 0) return i00;
+        long top = ((long) i00 << WEIGHT_BITS) + (long) (i10 - i00) * fu;
+        long bottom = ((long) i01 << WEIGHT_BITS) + (long) (i11 - i01) * fu;
+        long value = (top << WEIGHT_BITS) + (bottom - top) * fv;
+        return (float) (value * 0x1p-32);
+    }
+}
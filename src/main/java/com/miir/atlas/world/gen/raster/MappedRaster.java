@@ -0,0 +1,213 @@
+package com.miir.atlas.world.gen.raster;
+
+import it.unimi.dsi.fastutil.ints.Int2IntOpenHashMap;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.util.Arrays;
+
+/**
+ * a raster stored in a tiled binary file and read through memory mapping, so the heap only holds the palette.
+ * the os page cache decides which tiles stay resident.
+ * <p>
+ * layout: a header (magic, version, sha-256 of the source image, width, height, tile size, bytes per sample, palette), padded to
+ * {@link #ALIGNMENT}, then square tiles in row-major order. edge tiles are padded to full size.
+ */
+public class MappedRaster implements MapRaster {
+    private static final int MAGIC = 0x41544C52; // ATLR
+    // 2: grayscale maps from 16-bit images keep two bytes per sample
+    // 3: files are keyed by a sha-256 digest of the source instead of a crc
+    // 4: 16-bit grayscale levels follow the same srgb curve as 8-bit ones
+    private static final int VERSION = 4;
+    private static final int ALIGNMENT = 4096;
+    private static final int HEADER_SIZE = 56;
+
+    private final int width;
+    private final int height;
+    private final int tileShift;
+    private final int tileMask;
+    private final int tilesX;
+    private final int bytesPerSample;
+    private final int tileBytes;
+    private final int tilesPerBuffer;
+    private final MappedByteBuffer[] buffers;
+
+    private MappedRaster(int width, int height, int tileSize, int bytesPerSample, MappedByteBuffer[] buffers, int tilesPerBuffer) {
+        this.width = width;
+        this.height = height;
+        this.tileShift = Integer.numberOfTrailingZeros(tileSize);
+        this.tileMask = tileSize - 1;
+        this.tilesX = (width + tileSize - 1) / tileSize;
+        this.bytesPerSample = bytesPerSample;
+        this.tileBytes = tileSize * tileSize * bytesPerSample;
+        this.tilesPerBuffer = tilesPerBuffer;
+        this.buffers = buffers;
+    }
+
+    @Override
+    public int get(int x, int z) {
+        int tile = (z >> this.tileShift) * this.tilesX + (x >> this.tileShift);
+        MappedByteBuffer buffer = this.buffers[tile / this.tilesPerBuffer];
+        int offset = (tile % this.tilesPerBuffer) * this.tileBytes + (((z & this.tileMask) << this.tileShift) + (x & this.tileMask)) * this.bytesPerSample;
+        return switch (this.bytesPerSample) {
+            case 1 -> buffer.get(offset) & 0xFF;
+            case 2 -> buffer.getShort(offset) & 0xFFFF;
+            default -> buffer.getInt(offset);
+        };
+    }
+
+    @Override
+    public int getWidth() {return this.width;}
+    @Override
+    public int getHeight() {return this.height;}
+    @Override
+    public long getSizeInBytes() {return 0;}
+    @Override
+    public int getMaxLevel() {return this.bytesPerSample == 1 ? 0xFF : 0xFFFF;}
+
+    /**
+     * maps a raster file written by {@link #write}.
+     * @return the raster, wrapped in a {@link PaletteRaster} if it was palettized, or null if the file is missing,
+     * unreadable or was written from a different source
+     */
+    @Nullable
+    public static MapRaster open(Path file, byte[] sourceDigest) throws IOException {
+        if (!Files.isRegularFile(file)) return null;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            if (channel.read(header, 0) < HEADER_SIZE) return null;
+            header.flip();
+            if (header.getInt() != MAGIC || header.getInt() != VERSION || !readDigest(header, sourceDigest)) return null;
+            int width = header.getInt();
+            int height = header.getInt();
+            int tileSize = header.getInt();
+            int bytesPerSample = header.getInt();
+            ByteBuffer paletteLength = ByteBuffer.allocate(4);
+            channel.read(paletteLength, HEADER_SIZE);
+            int[] palette = new int[paletteLength.flip().getInt()];
+            if (palette.length > 0) {
+                ByteBuffer paletteBytes = ByteBuffer.allocate(4 * palette.length);
+                channel.read(paletteBytes, HEADER_SIZE + 4);
+                paletteBytes.flip().asIntBuffer().get(palette);
+            }
+            long dataStart = align(HEADER_SIZE + 4L + 4L * palette.length);
+            int tileBytes = tileSize * tileSize * bytesPerSample;
+            long tiles = (long) ((width + tileSize - 1) / tileSize) * ((height + tileSize - 1) / tileSize);
+            if (channel.size() < dataStart + tiles * tileBytes) return null;
+            int tilesPerBuffer = Integer.MAX_VALUE / tileBytes;
+            MappedByteBuffer[] buffers = new MappedByteBuffer[(int) ((tiles + tilesPerBuffer - 1) / tilesPerBuffer)];
+            for (int i = 0; i < buffers.length; i++) {
+                long start = (long) i * tilesPerBuffer;
+                long count = Math.min(tilesPerBuffer, tiles - start);
+                buffers[i] = channel.map(FileChannel.MapMode.READ_ONLY, dataStart + start * tileBytes, count * tileBytes);
+            }
+            MappedRaster raster = new MappedRaster(width, height, tileSize, bytesPerSample, buffers, tilesPerBuffer);
+            return palette.length > 0 ? new PaletteRaster(raster, palette) : raster;
+        }
+    }
+
+    /**
+     * converts a streamed image into a tiled raster file. grayscale maps keep the levels of each pixel, in one byte or
+     * two depending on the source; color maps keep the low 24 bits, palettized when there are at most 65536 colors.
+     */
+    public static void write(RowSource source, boolean color, int tileSize, byte[] sourceDigest, Path file) throws IOException {
+        if (Integer.bitCount(tileSize) != 1) throw new IllegalArgumentException("tile size must be a power of two, got " + tileSize);
+        int width = source.getWidth();
+        int height = source.getHeight();
+        Int2IntOpenHashMap lookup = new Int2IntOpenHashMap();
+        lookup.defaultReturnValue(-1);
+        int[] palette = new int[0];
+        int maxLevel = source.getMaxLevel();
+        int bytesPerSample = maxLevel > 0xFF ? 2 : 1;
+        if (color) {
+            int[][] found = {new int[256]};
+            source.readRows((z, row) -> {
+                for (int x = 0; x < width; x++) {
+                    int c = row[x] & 0xFFFFFF;
+                    if (lookup.get(c) == -1 && lookup.size() <= 65536) {
+                        if (lookup.size() == found[0].length) {
+                            int[] grown = new int[found[0].length * 2];
+                            System.arraycopy(found[0], 0, grown, 0, found[0].length);
+                            found[0] = grown;
+                        }
+                        found[0][lookup.size()] = c;
+                        lookup.put(c, lookup.size());
+                    }
+                }
+            });
+            if (lookup.size() > 65536) {
+                bytesPerSample = 4;
+            } else {
+                palette = new int[lookup.size()];
+                System.arraycopy(found[0], 0, palette, 0, palette.length);
+                bytesPerSample = palette.length > 256 ? 2 : 1;
+            }
+        }
+        int tilesX = (width + tileSize - 1) / tileSize;
+        int tilesZ = (height + tileSize - 1) / tileSize;
+        int tileBytes = tileSize * tileSize * bytesPerSample;
+        long dataStart = align(HEADER_SIZE + 4L + 4L * palette.length);
+        Files.createDirectories(file.getParent());
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE + 4 + 4 * palette.length);
+            header.putInt(MAGIC).putInt(VERSION).put(sourceDigest)
+                    .putInt(width).putInt(height).putInt(tileSize).putInt(bytesPerSample)
+                    .putInt(palette.length);
+            for (int c : palette) header.putInt(c);
+            channel.write(header.flip(), 0);
+
+            // one strip of tiles is buffered at a time, so conversion memory scales with the map's width only
+            ByteBuffer strip = ByteBuffer.allocate(tilesX * tileBytes);
+            int shift = Integer.numberOfTrailingZeros(tileSize);
+            int mask = tileSize - 1;
+            boolean palettized = palette.length > 0;
+            int bps = bytesPerSample;
+            source.readRows((z, row) -> {
+                int rowOffset = (z & mask) << shift;
+                for (int x = 0; x < width; x++) {
+                    int value = color ? row[x] & 0xFFFFFF : row[x] & maxLevel;
+                    if (palettized) value = lookup.get(value);
+                    int offset = (x >> shift) * tileBytes + (rowOffset + (x & mask)) * bps;
+                    switch (bps) {
+                        case 1 -> strip.put(offset, (byte) value);
+                        case 2 -> strip.putShort(offset, (short) value);
+                        default -> strip.putInt(offset, value);
+                    }
+                }
+                if ((z & mask) == mask || z == height - 1) {
+                    strip.clear();
+                    long position = dataStart + (long) (z >> shift) * tilesX * tileBytes;
+                    while (strip.hasRemaining()) {
+                        position += channel.write(strip, position);
+                    }
+                    strip.clear();
+                    Arrays.fill(strip.array(), (byte) 0);
+                }
+            });
+            if (channel.size() < dataStart + (long) tilesX * tilesZ * tileBytes) {
+                throw new IOException("incomplete raster written to " + file);
+            }
+        }
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    // compares the digest at the buffer's position with the expected one, moving past it either way
+    static boolean readDigest(ByteBuffer header, byte[] expected) {
+        byte[] digest = new byte[expected.length];
+        header.get(digest);
+        return MessageDigest.isEqual(digest, expected);
+    }
+
+    private static long align(long position) {
+        return (position + ALIGNMENT - 1) / ALIGNMENT * ALIGNMENT;
+    }
+}
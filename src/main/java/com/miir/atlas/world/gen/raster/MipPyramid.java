@@ -0,0 +1,160 @@
+package com.miir.atlas.world.gen.raster;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * successively halved copies of a map. each pixel of level n summarizes a 2^n by 2^n block of the base map: grayscale
+ * maps keep its average, color maps its most common color. level 0 is the base map itself.
+ * <p>
+ * building reads every pixel of the base map, so pyramids are only meant for maps held on the heap.
+ */
+public class MipPyramid {
+    private static final Reducer AVERAGE = (a, b, c, d) -> (a + b + c + d + 2) >> 2;
+    private static final Reducer MODE = (a, b, c, d) -> {
+        if (a == b || a == c || a == d) return a;
+        if (b == c || b == d) return b;
+        if (c == d) return c;
+        return a;
+    };
+
+    private final MapRaster base;
+    private final List<MapRaster> levels = new ArrayList<>();
+
+    private MipPyramid(MapRaster base) {
+        this.base = base;
+    }
+
+    public static MipPyramid build(MapRaster base, boolean color) {
+        MipPyramid pyramid = new MipPyramid(base);
+        if (!color) {
+            pyramid.addLevels(reduceBase(base, base.getMaxLevel(), AVERAGE), AVERAGE, null);
+        } else if (base instanceof PaletteRaster palettized) {
+            // modes are taken over palette indices where there is a palette, raw colors otherwise
+            int[] palette = palettized.getPalette();
+            pyramid.addLevels(reduceBase(palettized.getIndices(), palette.length - 1, MODE), MODE, palette);
+        } else {
+            pyramid.addLevels(reduceBase(base, -1, MODE), MODE, null);
+        }
+        return pyramid;
+    }
+
+    // halves the base map two rows at a time, straight into a half-resolution level
+    private static Level reduceBase(MapRaster base, int max, Reducer reducer) {
+        int width = base.getWidth(), height = base.getHeight();
+        int w = (width + 1) / 2, h = (height + 1) / 2;
+        Level level = new Level(w, h, max);
+        int[] top = new int[width], bottom = new int[width];
+        for (int z = 0; z < h; z++) {
+            int z0 = 2 * z, z1 = Math.min(z0 + 1, height - 1);
+            base.getRow(0, z0, width, top);
+            base.getRow(0, z1, width, bottom);
+            for (int x = 0; x < w; x++) {
+                int x0 = 2 * x, x1 = Math.min(x0 + 1, width - 1);
+                level.set(z * w + x, reducer.reduce(top[x0], top[x1], bottom[x0], bottom[x1]));
+            }
+        }
+        return level;
+    }
+
+    // every level after the first reduces the one before it
+    private void addLevels(Level level, Reducer reducer, int[] palette) {
+        while (true) {
+            MapRaster raster = level.toRaster();
+            this.levels.add(palette != null ? new PaletteRaster(raster, palette) : raster);
+            int width = level.width, height = level.height;
+            if (width <= 1 && height <= 1) return;
+            int w = (width + 1) / 2, h = (height + 1) / 2;
+            Level next = new Level(w, h, level.max);
+            for (int z = 0; z < h; z++) {
+                int z0 = 2 * z * width, z1 = Math.min(2 * z + 1, height - 1) * width;
+                for (int x = 0; x < w; x++) {
+                    int x0 = 2 * x, x1 = Math.min(x0 + 1, width - 1);
+                    next.set(z * w + x, reducer.reduce(level.get(z0 + x0), level.get(z0 + x1), level.get(z1 + x0), level.get(z1 + x1)));
+                }
+            }
+            level = next;
+        }
+    }
+
+    public MapRaster getBase() {
+        return this.base;
+    }
+
+    /**
+     * @return the number of levels, including the base map
+     */
+    public int getLevels() {
+        return 1 + this.levels.size();
+    }
+
+    /**
+     * @return the coarsest level whose pixels are at most {@code pixels} base pixels wide
+     */
+    public static int getLevelFor(float pixels) {
+        int level = 0;
+        while (level < 30 && (2 << level) <= pixels) level++;
+        return level;
+    }
+
+    /**
+     * @return the given level of the pyramid: averages for grayscale maps, the most common colors for color maps. levels
+     * past the coarsest return the coarsest.
+     */
+    public MapRaster getLevel(int level) {
+        return level == 0 ? this.base : this.levels.get(Math.min(level, this.levels.size()) - 1);
+    }
+
+    public long getSizeInBytes() {
+        long size = 0;
+        for (MapRaster level : this.levels) {
+            size += level.getSizeInBytes();
+        }
+        return size;
+    }
+
+    /**
+     * a level being built, stored in the narrowest array that holds values up to {@code max}, or ints if max is -1
+     */
+    private static class Level {
+        private final int width;
+        private final int height;
+        private final int max;
+        private final byte[] bytes;
+        private final short[] shorts;
+        private final int[] ints;
+
+        private Level(int width, int height, int max) {
+            this.width = width;
+            this.height = height;
+            this.max = max;
+            boolean narrow = max >= 0 && max <= 0xFF, wide = max > 0xFF && max <= 0xFFFF;
+            this.bytes = narrow ? new byte[width * height] : null;
+            this.shorts = wide ? new short[width * height] : null;
+            this.ints = !narrow && !wide ? new int[width * height] : null;
+        }
+
+        private int get(int i) {
+            if (this.bytes != null) return this.bytes[i] & 0xFF;
+            if (this.shorts != null) return this.shorts[i] & 0xFFFF;
+            return this.ints[i];
+        }
+
+        private void set(int i, int value) {
+            if (this.bytes != null) this.bytes[i] = (byte) value;
+            else if (this.shorts != null) this.shorts[i] = (short) value;
+            else this.ints[i] = value;
+        }
+
+        private MapRaster toRaster() {
+            if (this.bytes != null) return new ByteRaster(this.width, this.height, this.bytes);
+            if (this.shorts != null) return new ShortRaster(this.width, this.height, this.shorts);
+            return new IntRaster(this.width, this.height, this.ints);
+        }
+    }
+
+    @FunctionalInterface
+    private interface Reducer {
+        int reduce(int a, int b, int c, int d);
+    }
+}
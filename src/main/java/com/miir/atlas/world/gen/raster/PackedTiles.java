@@ -0,0 +1,242 @@
+package com.miir.atlas.world.gen.raster;
+
+import it.unimi.dsi.fastutil.ints.IntOpenHashSet;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * an image cut into square tiles that are each deflated on their own, built in a single streamed pass over the image
+ * straight into a file. a {@link LazyRaster} reads and inflates just the tile it misses instead of decoding the image
+ * again, so only the tile offsets stay in memory.
+ * <p>
+ * tiles hold three bytes (rgb) per sample for color maps, and one or two bytes of level for grayscale maps. edge tiles
+ * are padded to full size with zeros.
+ * <p>
+ * file layout: a header (magic, version, sha-256 of the source image, kind, width, height, tile size, bytes per
+ * sample, tile count, color count), the end offset of every tile, then the deflated tiles back to back.
+ */
+public class PackedTiles implements Closeable {
+    private static final int MAGIC = 0x41544C50; // ATLP
+    // bump whenever packing would turn the same image into different tiles
+    // 2: 16-bit grayscale levels follow the same srgb curve as 8-bit ones
+    // 3: tile ends are longs, and color maps record how many colors they hold
+    private static final int VERSION = 3;
+    private static final int HEADER_SIZE = 68;
+    // color counts stop here, since only whether a map fits a 16-bit palette matters
+    private static final int MAX_COLORS = 0x10001;
+
+    private final FileChannel channel;
+    private final boolean color;
+    private final int width;
+    private final int height;
+    private final int tileSize;
+    private final int bytesPerSample;
+    private final int colors;
+    // tile i is [ends[i - 1], ends[i]) past dataStart
+    private final long[] ends;
+    private final long dataStart;
+
+    private PackedTiles(FileChannel channel, boolean color, int width, int height, int tileSize, int bytesPerSample, int colors, long[] ends) {
+        this.channel = channel;
+        this.color = color;
+        this.width = width;
+        this.height = height;
+        this.tileSize = tileSize;
+        this.bytesPerSample = bytesPerSample;
+        this.colors = colors;
+        this.ends = ends;
+        this.dataStart = HEADER_SIZE + 8L * ends.length;
+    }
+
+    /**
+     * cuts a streamed image into packed tiles saved to {@code file}, then opens them. only one strip of tiles is held
+     * uncompressed at a time, so packing memory scales with the map's width only.
+     */
+    public static PackedTiles pack(RowSource source, boolean color, int tileSize, byte[] sourceDigest, Path file) throws IOException {
+        if (Integer.bitCount(tileSize) != 1) throw new IllegalArgumentException("tile size must be a power of two, got " + tileSize);
+        int width = source.getWidth();
+        int height = source.getHeight();
+        int bytesPerSample = color ? 3 : source.getMaxLevel() > 0xFF ? 2 : 1;
+        int tilesX = (width + tileSize - 1) / tileSize;
+        int tilesZ = (height + tileSize - 1) / tileSize;
+        int tileBytes = tileSize * tileSize * bytesPerSample;
+        if ((long) tilesX * tileBytes > Integer.MAX_VALUE) {
+            throw new IOException("map is too wide to pack into " + tileSize + " pixel tiles (" + width + " pixels)");
+        }
+        int shift = Integer.numberOfTrailingZeros(tileSize);
+        int mask = tileSize - 1;
+        byte[] strip = new byte[tilesX * tileBytes];
+        long[] ends = new long[tilesX * tilesZ];
+        int[] packed = {0};
+        long dataStart = HEADER_SIZE + 8L * ends.length;
+        // the data is written past the header and tile ends, which go in once every tile's size is known
+        long[] position = {dataStart};
+        IntOpenHashSet colors = color ? new IntOpenHashSet() : null;
+        Files.createDirectories(file.getParent());
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            ByteBuffer out = ByteBuffer.allocate(RasterFile.CHUNK);
+            source.readRows((z, row) -> {
+                int rowOffset = (z & mask) << shift;
+                int lastColor = -1;
+                for (int x = 0; x < width; x++) {
+                    int offset = (x >> shift) * tileBytes + (rowOffset + (x & mask)) * bytesPerSample;
+                    int value = row[x];
+                    switch (bytesPerSample) {
+                        case 1 -> strip[offset] = (byte) value;
+                        case 2 -> {
+                            strip[offset] = (byte) (value >> 8);
+                            strip[offset + 1] = (byte) value;
+                        }
+                        default -> {
+                            strip[offset] = (byte) (value >> 16);
+                            strip[offset + 1] = (byte) (value >> 8);
+                            strip[offset + 2] = (byte) value;
+                            value &= 0xFFFFFF;
+                            if (value != lastColor && colors.size() < MAX_COLORS) colors.add(value);
+                            lastColor = value;
+                        }
+                    }
+                }
+                if ((z & mask) != mask && z != height - 1) return;
+                for (int tx = 0; tx < tilesX; tx++) {
+                    deflater.reset();
+                    deflater.setInput(strip, tx * tileBytes, tileBytes);
+                    deflater.finish();
+                    while (!deflater.finished()) {
+                        int length = deflater.deflate(out.array(), out.position(), out.remaining());
+                        out.position(out.position() + length);
+                        if (!out.hasRemaining()) {
+                            position[0] = RasterFile.writeFully(channel, out.flip(), position[0]);
+                            out.clear();
+                        }
+                    }
+                    ends[(z >> shift) * tilesX + tx] = position[0] + out.position() - dataStart;
+                }
+                packed[0] += tilesX;
+                Arrays.fill(strip, (byte) 0);
+            });
+            if (packed[0] != ends.length) throw new IOException("image ended after " + packed[0] + " of " + ends.length + " tiles");
+            RasterFile.writeFully(channel, out.flip(), position[0]);
+            ByteBuffer header = ByteBuffer.allocate((int) dataStart);
+            header.putInt(MAGIC).putInt(VERSION).put(sourceDigest).putInt(color ? 1 : 0)
+                    .putInt(width).putInt(height).putInt(tileSize).putInt(bytesPerSample)
+                    .putInt(ends.length).putInt(color ? colors.size() : 0);
+            for (long end : ends) header.putLong(end);
+            RasterFile.writeFully(channel, header.flip(), 0);
+        } finally {
+            deflater.end();
+        }
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        PackedTiles tiles = read(file, sourceDigest, color, tileSize);
+        if (tiles == null) throw new IOException("could not read back packed tiles " + file);
+        return tiles;
+    }
+
+    /**
+     * reads one tile from the file and inflates it into {@code out}, which holds
+     * {@code tileSize * tileSize * bytesPerSample} bytes
+     */
+    public void unpack(int index, byte[] out) throws IOException {
+        long start = index == 0 ? 0 : this.ends[index - 1];
+        long length = this.ends[index] - start;
+        if (length < 0 || length > Integer.MAX_VALUE) throw new IOException("packed tile " + index + " is corrupt");
+        byte[] compressed = new byte[(int) length];
+        RasterFile.readFully(this.channel, compressed, this.dataStart + start);
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(compressed);
+            int inflated = 0;
+            while (inflated < out.length && !inflater.finished()) {
+                int read = inflater.inflate(out, inflated, out.length - inflated);
+                if (read == 0 && (inflater.needsInput() || inflater.needsDictionary())) break;
+                inflated += read;
+            }
+            if (inflated != out.length) throw new IOException("packed tile " + index + " is truncated");
+        } catch (DataFormatException e) {
+            throw new IOException("packed tile " + index + " is corrupt", e);
+        } finally {
+            inflater.end();
+        }
+    }
+
+    /**
+     * opens tiles saved by {@link #pack}. the file stays open until {@link #close}.
+     * @return the tiles, or null if the file is missing, unreadable, or was written from a different source, kind or
+     * tile size
+     */
+    @Nullable
+    public static PackedTiles read(Path file, byte[] sourceDigest, boolean color, int tileSize) throws IOException {
+        if (!Files.isRegularFile(file)) return null;
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.READ);
+        PackedTiles tiles = null;
+        try {
+            tiles = read(channel, sourceDigest, color, tileSize);
+            return tiles;
+        } finally {
+            if (tiles == null) channel.close();
+        }
+    }
+
+    @Nullable
+    private static PackedTiles read(FileChannel channel, byte[] sourceDigest, boolean color, int tileSize) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        if (channel.read(header, 0) < HEADER_SIZE) return null;
+        header.flip();
+        if (header.getInt() != MAGIC || header.getInt() != VERSION || !MappedRaster.readDigest(header, sourceDigest) || header.getInt() != (color ? 1 : 0)) return null;
+        int width = header.getInt();
+        int height = header.getInt();
+        if (header.getInt() != tileSize) return null;
+        int bytesPerSample = header.getInt();
+        int tiles = header.getInt();
+        int colors = header.getInt();
+        if (width <= 0 || height <= 0 || (long) ((width + tileSize - 1) / tileSize) * ((height + tileSize - 1) / tileSize) != tiles) return null;
+        ByteBuffer endBytes = ByteBuffer.allocate(8 * tiles);
+        RasterFile.readFully(channel, endBytes, HEADER_SIZE);
+        long[] ends = new long[tiles];
+        endBytes.flip().asLongBuffer().get(ends);
+        if (channel.size() != HEADER_SIZE + 8L * tiles + ends[tiles - 1]) return null;
+        return new PackedTiles(channel, color, width, height, tileSize, bytesPerSample, colors, ends);
+    }
+
+    /**
+     * closes the file, after which no tile can be unpacked
+     */
+    @Override
+    public void close() throws IOException {
+        this.channel.close();
+    }
+
+    public boolean isColor() {return this.color;}
+    public int getWidth() {return this.width;}
+    public int getHeight() {return this.height;}
+    public int getTileSize() {return this.tileSize;}
+    public int getBytesPerSample() {return this.bytesPerSample;}
+
+    /**
+     * @return whether this is a color map with few enough colors to index them with 16 bits, like {@link PaletteRaster}
+     */
+    public boolean hasPalette() {
+        return this.color && this.colors <= 0x10000;
+    }
+
+    /**
+     * @return the memory the tiles take while no tile is unpacked, which is just where each one starts
+     */
+    public long getSizeInBytes() {
+        return 8L * this.ends.length;
+    }
+}
@@ -0,0 +1,50 @@
+package com.miir.atlas.world.gen.raster;
+
+import it.unimi.dsi.fastutil.ints.Int2IntOpenHashMap;
+
+/**
+ * a color palette that grows as tiles are decoded. lookups by index never lock; an index handed out by
+ * {@link #indexOf} is readable by any thread that received it through a safely published tile.
+ */
+public class Palette {
+    private final Int2IntOpenHashMap lookup = new Int2IntOpenHashMap();
+    private volatile int[] colors = new int[16];
+    private volatile int size;
+
+    public Palette() {
+        this.lookup.defaultReturnValue(-1);
+    }
+
+    public int get(int index) {
+        return this.colors[index];
+    }
+
+    public synchronized int indexOf(int color) {
+        int index = this.lookup.get(color);
+        if (index != -1) return index;
+        index = this.size;
+        int[] colors = this.colors;
+        if (index == colors.length) {
+            int[] grown = new int[index * 2];
+            System.arraycopy(colors, 0, grown, 0, index);
+            grown[index] = color;
+            this.colors = grown;
+        } else {
+            colors[index] = color;
+        }
+        this.lookup.put(color, index);
+        this.size = index + 1;
+        return index;
+    }
+
+    public int size() {
+        return this.size;
+    }
+
+    public int[] toArray() {
+        int size = this.size;
+        int[] copy = new int[size];
+        System.arraycopy(this.colors, 0, copy, 0, size);
+        return copy;
+    }
+}
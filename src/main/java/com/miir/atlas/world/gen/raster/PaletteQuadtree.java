@@ -0,0 +1,143 @@
+package com.miir.atlas.world.gen.raster;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * records which palette entries occur in each square block of an indexed map, at every power of two block size from
+ * 8 pixels up to the whole map. a nearest-pixel search then only descends into blocks that contain a wanted entry,
+ * closest first, and only reads pixels of the final few candidate blocks.
+ */
+public class PaletteQuadtree {
+    private static final int LEAF_SHIFT = 3;
+    private static final int BLOCK = 256;
+
+    private final IndexedRaster raster;
+    // levels.get(l).get(p)[i]: bit b is set if palette entry 64 * p + b occurs in block i of level l
+    private final List<List<long[]>> levels = new ArrayList<>();
+    private final List<int[]> sizes = new ArrayList<>();
+
+    public PaletteQuadtree(IndexedRaster raster) {
+        this.raster = raster;
+        int width = (raster.getWidth() + (1 << LEAF_SHIFT) - 1) >> LEAF_SHIFT;
+        int height = (raster.getHeight() + (1 << LEAF_SHIFT) - 1) >> LEAF_SHIFT;
+        List<long[]> leaves = new ArrayList<>();
+        // the map is read one block at a time rather than row by row, so a lazily stored map decodes each of its tiles
+        // once however small its tile cache is
+        for (int bz = 0; bz < raster.getHeight(); bz += BLOCK) {
+            for (int bx = 0; bx < raster.getWidth(); bx += BLOCK) {
+                for (int z = bz; z < Math.min(bz + BLOCK, raster.getHeight()); z++) {
+                    for (int x = bx; x < Math.min(bx + BLOCK, raster.getWidth()); x++) {
+                        int index = raster.getIndex(x, z);
+                        int plane = index >> 6;
+                        while (leaves.size() <= plane) leaves.add(new long[width * height]);
+                        leaves.get(plane)[(z >> LEAF_SHIFT) * width + (x >> LEAF_SHIFT)] |= 1L << index;
+                    }
+                }
+            }
+        }
+        this.levels.add(leaves);
+        this.sizes.add(new int[]{width, height});
+        while (width > 1 || height > 1) {
+            int w = (width + 1) / 2, h = (height + 1) / 2;
+            List<long[]> below = this.levels.get(this.levels.size() - 1);
+            List<long[]> level = new ArrayList<>();
+            for (long[] masks : below) {
+                long[] merged = new long[w * h];
+                for (int z = 0; z < height; z++) {
+                    for (int x = 0; x < width; x++) {
+                        merged[(z >> 1) * w + (x >> 1)] |= masks[z * width + x];
+                    }
+                }
+                level.add(merged);
+            }
+            this.levels.add(level);
+            this.sizes.add(new int[]{w, h});
+            width = w;
+            height = h;
+        }
+    }
+
+    public IndexedRaster getRaster() {
+        return this.raster;
+    }
+
+    /**
+     * @param wanted bit i of word i / 64 is set for every wanted palette entry
+     * @param radius the largest distance along either axis to search
+     * @return the pixel closest to (x, z) whose palette entry is wanted, packed as {@code z << 32 | x}, or -1 if
+     * there is none within the radius
+     */
+    public long findNearest(int x, int z, long[] wanted, int radius) {
+        int minX = x - radius, minZ = z - radius, maxX = x + radius, maxZ = z + radius;
+        PriorityQueue<Node> queue = new PriorityQueue<>();
+        int top = this.levels.size() - 1;
+        queue.add(new Node(top + LEAF_SHIFT, 0, 0, 0));
+        while (!queue.isEmpty()) {
+            Node node = queue.poll();
+            if (node.shift == 0) {
+                return (long) node.z << 32 | node.x;
+            }
+            if (node.shift == LEAF_SHIFT) {
+                int x0 = Math.max(minX, node.x << LEAF_SHIFT), z0 = Math.max(minZ, node.z << LEAF_SHIFT);
+                int x1 = Math.min(Math.min(maxX, this.raster.getWidth() - 1), ((node.x + 1) << LEAF_SHIFT) - 1);
+                int z1 = Math.min(Math.min(maxZ, this.raster.getHeight() - 1), ((node.z + 1) << LEAF_SHIFT) - 1);
+                for (int pz = z0; pz <= z1; pz++) {
+                    for (int px = x0; px <= x1; px++) {
+                        if (isWanted(wanted, this.raster.getIndex(px, pz))) {
+                            long dx = px - x, dz = pz - z;
+                            queue.add(new Node(0, px, pz, dx * dx + dz * dz));
+                        }
+                    }
+                }
+                continue;
+            }
+            int level = node.shift - LEAF_SHIFT - 1;
+            List<long[]> masks = this.levels.get(level);
+            int width = this.sizes.get(level)[0], height = this.sizes.get(level)[1];
+            int shift = node.shift - 1;
+            for (int cz = node.z * 2; cz <= Math.min(node.z * 2 + 1, height - 1); cz++) {
+                for (int cx = node.x * 2; cx <= Math.min(node.x * 2 + 1, width - 1); cx++) {
+                    int bx0 = cx << shift, bz0 = cz << shift, bx1 = ((cx + 1) << shift) - 1, bz1 = ((cz + 1) << shift) - 1;
+                    if (bx1 < minX || bz1 < minZ || bx0 > maxX || bz0 > maxZ) continue;
+                    if (!intersects(masks, cz * width + cx, wanted)) continue;
+                    long dx = Math.max(0, Math.max(bx0 - x, x - bx1)), dz = Math.max(0, Math.max(bz0 - z, z - bz1));
+                    queue.add(new Node(shift, cx, cz, dx * dx + dz * dz));
+                }
+            }
+        }
+        return -1;
+    }
+
+    private static boolean isWanted(long[] wanted, int index) {
+        return (index >> 6) < wanted.length && (wanted[index >> 6] & 1L << index) != 0;
+    }
+
+    private static boolean intersects(List<long[]> masks, int block, long[] wanted) {
+        for (int plane = 0; plane < Math.min(masks.size(), wanted.length); plane++) {
+            if ((masks.get(plane)[block] & wanted[plane]) != 0) return true;
+        }
+        return false;
+    }
+
+    public long getSizeInBytes() {
+        long size = 0;
+        for (List<long[]> level : this.levels) {
+            for (long[] masks : level) {
+                size += 8L * masks.length;
+            }
+        }
+        return size;
+    }
+
+    // a block of 2^shift pixels, or a single pixel at shift 0, ordered by its distance to the query
+    private record Node(int shift, int x, int z, long distance) implements Comparable<Node> {
+        @Override
+        public int compareTo(Node other) {
+            int c = Long.compare(this.distance, other.distance);
+            // at equal distance, pixels come before the blocks that might contain them
+            return c != 0 ? c : Integer.compare(this.shift, other.shift);
+        }
+    }
+}
@@ -0,0 +1,138 @@
+package com.miir.atlas.world.gen.raster;
+
+import it.unimi.dsi.fastutil.ints.Int2IntOpenHashMap;
+
+/**
+ * a color map stored as one palette index per pixel. maps with up to 256 colors take a byte per pixel,
+ * up to 65536 colors take two.
+ */
+public class PaletteRaster implements IndexedRaster {
+    private final MapRaster indices;
+    private final int[] palette;
+
+    public PaletteRaster(MapRaster indices, int[] palette) {
+        this.indices = indices;
+        this.palette = palette;
+    }
+
+    @Override
+    public int get(int x, int z) {
+        return this.palette[this.indices.get(x, z)];
+    }
+
+    @Override
+    public int getIndex(int x, int z) {
+        return this.indices.get(x, z);
+    }
+
+    @Override
+    public int getPaletteSize() {
+        return this.palette.length;
+    }
+
+    @Override
+    public int getColor(int index) {
+        return this.palette[index];
+    }
+
+    public int[] getPalette() {
+        return this.palette;
+    }
+
+    public MapRaster getIndices() {
+        return this.indices;
+    }
+
+    @Override
+    public int getWidth() {return this.indices.getWidth();}
+    @Override
+    public int getHeight() {return this.indices.getHeight();}
+    @Override
+    public long getSizeInBytes() {return this.indices.getSizeInBytes() + 4L * this.palette.length;}
+
+    /**
+     * collects a color map row by row, widening the index storage only when the palette outgrows it.
+     * maps with more than 65536 colors fall back to storing the colors directly.
+     */
+    public static class Builder {
+        private final int width;
+        private final int height;
+        private final Int2IntOpenHashMap lookup = new Int2IntOpenHashMap();
+        private int[] palette = new int[16];
+        private byte[] bytes;
+        private short[] shorts;
+        private int[] colors;
+
+        public Builder(int width, int height) {
+            this.width = width;
+            this.height = height;
+            this.lookup.defaultReturnValue(-1);
+            this.bytes = new byte[width * height];
+        }
+
+        public void setRow(int z, int[] row) {
+            int offset = z * this.width;
+            for (int x = 0; x < this.width; x++) {
+                this.set(offset + x, row[x]);
+            }
+        }
+
+        private void set(int i, int color) {
+            if (this.colors != null) {
+                this.colors[i] = color;
+                return;
+            }
+            int index = this.lookup.get(color);
+            if (index == -1) {
+                index = this.add(color);
+                if (this.colors != null) {
+                    this.colors[i] = color;
+                    return;
+                }
+            }
+            if (this.bytes != null) {
+                this.bytes[i] = (byte) index;
+            } else {
+                this.shorts[i] = (short) index;
+            }
+        }
+
+        private int add(int color) {
+            int index = this.lookup.size();
+            if (index == 256 && this.bytes != null) {
+                this.shorts = new short[this.bytes.length];
+                for (int i = 0; i < this.bytes.length; i++) {
+                    this.shorts[i] = (short) (this.bytes[i] & 0xFF);
+                }
+                this.bytes = null;
+            } else if (index == 65536) {
+                this.colors = new int[this.shorts.length];
+                for (int i = 0; i < this.shorts.length; i++) {
+                    this.colors[i] = this.palette[this.shorts[i] & 0xFFFF];
+                }
+                this.shorts = null;
+                return -1;
+            }
+            if (index == this.palette.length) {
+                int[] grown = new int[index * 2];
+                System.arraycopy(this.palette, 0, grown, 0, index);
+                this.palette = grown;
+            }
+            this.palette[index] = color;
+            this.lookup.put(color, index);
+            return index;
+        }
+
+        public MapRaster build() {
+            if (this.colors != null) {
+                return new IntRaster(this.width, this.height, this.colors);
+            }
+            int[] palette = new int[this.lookup.size()];
+            System.arraycopy(this.palette, 0, palette, 0, palette.length);
+            MapRaster indices = this.bytes != null
+                    ? new ByteRaster(this.width, this.height, this.bytes)
+                    : new ShortRaster(this.width, this.height, this.shorts);
+            return new PaletteRaster(indices, palette);
+        }
+    }
+}
@@ -0,0 +1,259 @@
+package com.miir.atlas.world.gen.raster;
+
+import java.awt.color.ColorSpace;
+import java.awt.image.ColorModel;
+import java.awt.image.ComponentColorModel;
+import java.awt.image.DataBuffer;
+import java.awt.Transparency;
+import java.io.ByteArrayInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * streams the rows of a png straight out of its compressed data, holding two scanlines at a time instead of the
+ * decoded image. rows carry the same colors {@link ImageRowSource} would produce from ImageIO's decode, except that
+ * 16-bit grayscale images read as levels keep 16 bits of precision (see {@link #getMaxLevel}).
+ * <p>
+ * interlaced images, 16-bit color images and a few rare transparency cases are not streamed; {@link #open} returns
+ * null for them so they can go through ImageIO.
+ */
+public class PngRowSource implements RowSource {
+    private static final long SIGNATURE = 0x89504E470D0A1A0AL;
+    private static final int GRAY = 0, RGB = 2, INDEXED = 3, GRAY_ALPHA = 4, RGBA = 6;
+    // ImageIO decodes gray into a linear gray color space, which getRGB converts to srgb
+    private static final int[] GRAY_TO_SRGB = new int[256];
+    // the same curve for 16-bit levels, so a map exported at 16 bits only gains precision over its 8-bit export
+    private static final char[] GRAY16_TO_SRGB16 = new char[65536];
+
+    static {
+        ColorModel model = new ComponentColorModel(ColorSpace.getInstance(ColorSpace.CS_GRAY), false, false, Transparency.OPAQUE, DataBuffer.TYPE_BYTE);
+        for (int i = 0; i < 256; i++) {
+            GRAY_TO_SRGB[i] = model.getRGB(new byte[]{(byte) i}) & 0xFF;
+        }
+        // the srgb transfer function, which ImageIO's conversion follows to well within a level
+        for (int i = 0; i < 65536; i++) {
+            double linear = i / 65535.0;
+            double srgb = linear <= 0.0031308 ? 12.92 * linear : 1.055 * Math.pow(linear, 1 / 2.4) - 0.055;
+            GRAY16_TO_SRGB16[i] = (char) Math.round(srgb * 65535);
+        }
+    }
+
+    private final byte[] source;
+    private final List<int[]> data;
+    private final int imageWidth;
+    private final int width;
+    private final int height;
+    private final int bitDepth;
+    private final int colorType;
+    private final int[] palette;
+    private final boolean levels;
+
+    private PngRowSource(byte[] source, List<int[]> data, int imageWidth, int imageHeight, int bitDepth, int colorType, int[] palette, boolean levels) {
+        this.source = source;
+        this.data = data;
+        this.imageWidth = imageWidth;
+        this.width = imageWidth % 2 != 0 ? imageWidth - 1 : imageWidth;
+        this.height = imageHeight % 2 != 0 ? imageHeight - 1 : imageHeight;
+        this.bitDepth = bitDepth;
+        this.colorType = colorType;
+        this.palette = palette;
+        this.levels = levels;
+    }
+
+    /**
+     * @param levels whether the image is a grayscale map, so 16-bit gray should keep its full precision
+     * @return a row source over the image, or null if it is not a png this decoder streams
+     */
+    public static PngRowSource open(byte[] source, boolean levels) throws IOException {
+        if (source.length < 8 || readLong(source, 0) != SIGNATURE) return null;
+        int width = 0, height = 0, bitDepth = 0, colorType = -1;
+        int[] palette = null;
+        boolean transparent = false;
+        List<int[]> data = new ArrayList<>();
+        int position = 8;
+        while (position + 8 <= source.length) {
+            int length = readInt(source, position);
+            String type = new String(source, position + 4, 4, StandardCharsets.US_ASCII);
+            int start = position + 8;
+            if (length < 0 || start + length > source.length) throw new IOException("truncated png chunk " + type);
+            switch (type) {
+                case "IHDR" -> {
+                    width = readInt(source, start);
+                    height = readInt(source, start + 4);
+                    bitDepth = source[start + 8];
+                    colorType = source[start + 9];
+                    // any interlaced image goes through ImageIO
+                    if (source[start + 12] != 0) return null;
+                }
+                case "PLTE" -> {
+                    palette = new int[length / 3];
+                    for (int i = 0; i < palette.length; i++) {
+                        int p = start + 3 * i;
+                        palette[i] = 0xFF000000 | (source[p] & 0xFF) << 16 | (source[p + 1] & 0xFF) << 8 | source[p + 2] & 0xFF;
+                    }
+                }
+                case "tRNS" -> transparent = true;
+                case "IDAT" -> data.add(new int[]{start, length});
+                default -> {}
+            }
+            if (type.equals("IEND")) break;
+            position = start + length + 4;
+        }
+        if (width <= 0 || height <= 0 || data.isEmpty()) throw new IOException("png is missing its header or image data");
+        boolean supported = switch (colorType) {
+            // ImageIO turns low depth gray with a transparent level into a different gray ramp
+            case GRAY -> (bitDepth == 1 || bitDepth == 2 || bitDepth == 4) && !transparent || bitDepth == 8 || bitDepth == 16 && levels;
+            case INDEXED -> palette != null && (bitDepth == 1 || bitDepth == 2 || bitDepth == 4 || bitDepth == 8);
+            case GRAY_ALPHA -> bitDepth == 8 || bitDepth == 16 && levels;
+            case RGB, RGBA -> bitDepth == 8;
+            default -> false;
+        };
+        if (!supported) return null;
+        return new PngRowSource(source, data, width, height, bitDepth, colorType, palette, levels);
+    }
+
+    private int getChannels() {
+        return switch (this.colorType) {
+            case RGB -> 3;
+            case GRAY_ALPHA -> 2;
+            case RGBA -> 4;
+            default -> 1;
+        };
+    }
+
+    @Override
+    public void readRows(RowConsumer consumer) throws IOException {
+        int bitsPerPixel = this.getChannels() * this.bitDepth;
+        int rowBytes = (this.imageWidth * bitsPerPixel + 7) / 8;
+        // filters work on whole bytes, reaching back one pixel or one byte for sub-byte depths
+        int stride = Math.max(1, bitsPerPixel / 8);
+        byte[] previous = new byte[rowBytes];
+        byte[] current = new byte[rowBytes];
+        int[] row = new int[this.width];
+        List<InputStream> chunks = new ArrayList<>(this.data.size());
+        for (int[] chunk : this.data) {
+            chunks.add(new ByteArrayInputStream(this.source, chunk[0], chunk[1]));
+        }
+        Inflater inflater = new Inflater();
+        try (InputStream stream = new InflaterInputStream(new SequenceInputStream(Collections.enumeration(chunks)), inflater, 64 * 1024)) {
+            for (int z = 0; z < this.height; z++) {
+                int filter = stream.read();
+                if (filter < 0 || stream.readNBytes(current, 0, rowBytes) < rowBytes) throw new EOFException("png image data ends at row " + z);
+                unfilter(filter, current, previous, stride);
+                this.convert(current, row);
+                consumer.accept(z, row);
+                byte[] swap = previous;
+                previous = current;
+                current = swap;
+            }
+        } finally {
+            inflater.end();
+        }
+    }
+
+    private static void unfilter(int filter, byte[] current, byte[] previous, int stride) throws IOException {
+        int length = current.length;
+        switch (filter) {
+            case 0 -> {}
+            case 1 -> {
+                for (int i = stride; i < length; i++) current[i] += current[i - stride];
+            }
+            case 2 -> {
+                for (int i = 0; i < length; i++) current[i] += previous[i];
+            }
+            case 3 -> {
+                for (int i = 0; i < stride; i++) current[i] += (previous[i] & 0xFF) >> 1;
+                for (int i = stride; i < length; i++) current[i] += ((current[i - stride] & 0xFF) + (previous[i] & 0xFF)) >> 1;
+            }
+            case 4 -> {
+                for (int i = 0; i < stride; i++) current[i] += previous[i];
+                for (int i = stride; i < length; i++) {
+                    int a = current[i - stride] & 0xFF, b = previous[i] & 0xFF, c = previous[i - stride] & 0xFF;
+                    int p = a + b - c;
+                    int pa = Math.abs(p - a), pb = Math.abs(p - b), pc = Math.abs(p - c);
+                    current[i] += pa <= pb && pa <= pc ? a : pb <= pc ? b : c;
+                }
+            }
+            default -> throw new IOException("unknown png filter " + filter);
+        }
+    }
+
+    private void convert(byte[] line, int[] row) {
+        switch (this.colorType) {
+            case GRAY -> {
+                if (this.bitDepth == 16) {
+                    for (int x = 0; x < this.width; x++) row[x] = GRAY16_TO_SRGB16[(line[2 * x] & 0xFF) << 8 | line[2 * x + 1] & 0xFF];
+                } else if (this.bitDepth == 8) {
+                    for (int x = 0; x < this.width; x++) row[x] = gray(GRAY_TO_SRGB[line[x] & 0xFF]);
+                } else {
+                    // lower depths get an srgb gray ramp
+                    int max = (1 << this.bitDepth) - 1;
+                    for (int x = 0; x < this.width; x++) row[x] = gray(this.sample(line, x) * 255 / max);
+                }
+            }
+            case GRAY_ALPHA -> {
+                if (this.bitDepth == 16) {
+                    for (int x = 0; x < this.width; x++) row[x] = GRAY16_TO_SRGB16[(line[4 * x] & 0xFF) << 8 | line[4 * x + 1] & 0xFF];
+                } else {
+                    for (int x = 0; x < this.width; x++) row[x] = gray(GRAY_TO_SRGB[line[2 * x] & 0xFF]);
+                }
+            }
+            case INDEXED -> {
+                for (int x = 0; x < this.width; x++) {
+                    int index = this.bitDepth == 8 ? line[x] & 0xFF : this.sample(line, x);
+                    row[x] = index < this.palette.length ? this.palette[index] : 0xFF000000;
+                }
+            }
+            case RGB -> {
+                for (int x = 0, i = 0; x < this.width; x++, i += 3) {
+                    row[x] = 0xFF000000 | (line[i] & 0xFF) << 16 | (line[i + 1] & 0xFF) << 8 | line[i + 2] & 0xFF;
+                }
+            }
+            case RGBA -> {
+                for (int x = 0, i = 0; x < this.width; x++, i += 4) {
+                    row[x] = (line[i + 3] & 0xFF) << 24 | (line[i] & 0xFF) << 16 | (line[i + 1] & 0xFF) << 8 | line[i + 2] & 0xFF;
+                }
+            }
+            default -> throw new IllegalStateException("unsupported png color type " + this.colorType);
+        }
+    }
+
+    // a packed sample of a 1, 2 or 4 bit image, most significant bits first
+    private int sample(byte[] line, int x) {
+        int bit = x * this.bitDepth;
+        return (line[bit >> 3] & 0xFF) >> (8 - this.bitDepth - (bit & 7)) & ((1 << this.bitDepth) - 1);
+    }
+
+    private static int gray(int level) {
+        return 0xFF000000 | level << 16 | level << 8 | level;
+    }
+
+    /**
+     * @return 65535 for 16-bit grayscale images read as levels, whose rows hold 16-bit srgb levels, 255 otherwise
+     */
+    @Override
+    public int getMaxLevel() {
+        return this.levels && this.bitDepth == 16 ? 0xFFFF : 0xFF;
+    }
+
+    @Override
+    public int getWidth() {return this.width;}
+    @Override
+    public int getHeight() {return this.height;}
+
+    private static int readInt(byte[] bytes, int offset) {
+        return (bytes[offset] & 0xFF) << 24 | (bytes[offset + 1] & 0xFF) << 16 | (bytes[offset + 2] & 0xFF) << 8 | bytes[offset + 3] & 0xFF;
+    }
+
+    private static long readLong(byte[] bytes, int offset) {
+        return (long) readInt(bytes, offset) << 32 | readInt(bytes, offset + 4) & 0xFFFFFFFFL;
+    }
+}
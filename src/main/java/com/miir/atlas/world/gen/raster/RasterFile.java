@@ -0,0 +1,176 @@
+package com.miir.atlas.world.gen.raster;
+
+import org.jetbrains.annotations.Nullable;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * a decoded heap raster saved to disk exactly as it sits in memory, so the next start reads it back in one pass
+ * instead of decoding the image again.
+ * <p>
+ * layout: a header (magic, version, sha-256 of the source image, kind, width, height, bytes per sample, palette),
+ * then every sample in row-major order.
+ */
+public class RasterFile {
+    private static final int MAGIC = 0x41544C48; // ATLH
+    // bump whenever decoding would turn the same image into different samples
+    // 2: keyed by a sha-256 digest of the source instead of a crc
+    // 3: 16-bit grayscale levels follow the same srgb curve as 8-bit ones
+    private static final int VERSION = 3;
+    private static final int HEADER_SIZE = 56;
+    static final int CHUNK = 1 << 20;
+
+    /**
+     * reads a raster file written by {@link #write}.
+     * @param color whether the caller wants a color map, which is part of the key along with the source digest
+     * @return the raster, or null if the file is missing, unreadable or was written from a different source
+     */
+    @Nullable
+    public static MapRaster read(Path file, byte[] sourceDigest, boolean color) throws IOException {
+        if (!Files.isRegularFile(file)) return null;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            if (channel.read(header, 0) < HEADER_SIZE) return null;
+            header.flip();
+            if (header.getInt() != MAGIC || header.getInt() != VERSION || !MappedRaster.readDigest(header, sourceDigest) || header.getInt() != (color ? 1 : 0)) return null;
+            int width = header.getInt();
+            int height = header.getInt();
+            int bytesPerSample = header.getInt();
+            long samples = (long) width * height;
+            if (width <= 0 || height <= 0 || samples > Integer.MAX_VALUE) return null;
+            long position = HEADER_SIZE;
+            ByteBuffer paletteLength = ByteBuffer.allocate(4);
+            if (channel.read(paletteLength, position) < 4) return null;
+            int[] palette = new int[paletteLength.flip().getInt()];
+            position += 4;
+            if (channel.size() != position + 4L * palette.length + samples * bytesPerSample) return null;
+            if (palette.length > 0) {
+                ByteBuffer paletteBytes = ByteBuffer.allocate(4 * palette.length);
+                readFully(channel, paletteBytes, position);
+                paletteBytes.flip().asIntBuffer().get(palette);
+                position += 4L * palette.length;
+            }
+            MapRaster raster = switch (bytesPerSample) {
+                case 1 -> {
+                    byte[] data = new byte[(int) samples];
+                    readFully(channel, data, position);
+                    yield new ByteRaster(width, height, data);
+                }
+                case 2 -> {
+                    short[] data = new short[(int) samples];
+                    ByteBuffer buffer = ByteBuffer.allocate(CHUNK);
+                    for (int i = 0; i < data.length; ) {
+                        int count = Math.min(CHUNK / 2, data.length - i);
+                        buffer.clear().limit(2 * count);
+                        readFully(channel, buffer, position + 2L * i);
+                        buffer.flip().asShortBuffer().get(data, i, count);
+                        i += count;
+                    }
+                    yield new ShortRaster(width, height, data);
+                }
+                case 4 -> {
+                    int[] data = new int[(int) samples];
+                    ByteBuffer buffer = ByteBuffer.allocate(CHUNK);
+                    for (int i = 0; i < data.length; ) {
+                        int count = Math.min(CHUNK / 4, data.length - i);
+                        buffer.clear().limit(4 * count);
+                        readFully(channel, buffer, position + 4L * i);
+                        buffer.flip().asIntBuffer().get(data, i, count);
+                        i += count;
+                    }
+                    yield new IntRaster(width, height, data);
+                }
+                default -> null;
+            };
+            return raster != null && palette.length > 0 ? new PaletteRaster(raster, palette) : raster;
+        }
+    }
+
+    /**
+     * saves a raster built by decoding an image, one of {@link ByteRaster}, {@link ShortRaster}, {@link IntRaster} or
+     * a {@link PaletteRaster} over one of them
+     */
+    public static void write(MapRaster raster, boolean color, byte[] sourceDigest, Path file) throws IOException {
+        int[] palette = new int[0];
+        MapRaster samples = raster;
+        if (raster instanceof PaletteRaster paletteRaster) {
+            palette = paletteRaster.getPalette();
+            samples = paletteRaster.getIndices();
+        }
+        int bytesPerSample;
+        if (samples instanceof ByteRaster) bytesPerSample = 1;
+        else if (samples instanceof ShortRaster) bytesPerSample = 2;
+        else if (samples instanceof IntRaster) bytesPerSample = 4;
+        else throw new IllegalArgumentException("can't save a " + samples.getClass().getSimpleName());
+        int width = samples.getWidth();
+        int height = samples.getHeight();
+        Files.createDirectories(file.getParent());
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE + 4 + 4 * palette.length);
+            header.putInt(MAGIC).putInt(VERSION).put(sourceDigest).putInt(color ? 1 : 0)
+                    .putInt(width).putInt(height).putInt(bytesPerSample)
+                    .putInt(palette.length);
+            for (int c : palette) header.putInt(c);
+            long position = writeFully(channel, header.flip(), 0);
+            ByteBuffer buffer = ByteBuffer.allocate(Math.max(CHUNK, width * bytesPerSample));
+            int[] row = new int[width];
+            for (int z = 0; z < height; z++) {
+                samples.getRow(0, z, width, row);
+                if (buffer.remaining() < width * bytesPerSample) {
+                    position = writeFully(channel, buffer.flip(), position);
+                    buffer.clear();
+                }
+                for (int x = 0; x < width; x++) {
+                    switch (bytesPerSample) {
+                        case 1 -> buffer.put((byte) row[x]);
+                        case 2 -> buffer.putShort((short) row[x]);
+                        default -> buffer.putInt(row[x]);
+                    }
+                }
+            }
+            writeFully(channel, buffer.flip(), position);
+        }
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position);
+            if (read < 0) throw new EOFException("raster file ends early");
+            position += read;
+        }
+    }
+
+    /**
+     * fills {@code data} from the channel {@link #CHUNK} bytes at a time. the channel copies heap buffers through a
+     * temporary direct buffer as large as the read or write, so moving a whole raster at once would need that much
+     * again off the heap.
+     */
+    static void readFully(FileChannel channel, byte[] data, long position) throws IOException {
+        for (int i = 0; i < data.length; i += CHUNK) {
+            readFully(channel, ByteBuffer.wrap(data, i, Math.min(CHUNK, data.length - i)), position + i);
+        }
+    }
+
+    static long writeFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            position += channel.write(buffer, position);
+        }
+        return position;
+    }
+
+    static long writeFully(FileChannel channel, byte[] data, long position) throws IOException {
+        for (int i = 0; i < data.length; i += CHUNK) {
+            position = writeFully(channel, ByteBuffer.wrap(data, i, Math.min(CHUNK, data.length - i)), position);
+        }
+        return position;
+    }
+}
@@ -0,0 +1,29 @@
+package com.miir.atlas.world.gen.raster;
+
+import java.io.IOException;
+
+/**
+ * a decoded image that can be streamed top to bottom as ARGB rows, as many times as needed.
+ */
+public interface RowSource {
+    int getWidth();
+    int getHeight();
+
+    /**
+     * streams rows {@code 0} to {@code getHeight() - 1} in order. the row array is reused between calls.
+     */
+    void readRows(RowConsumer consumer) throws IOException;
+
+    /**
+     * @return the largest grayscale level in this image. levels are the low bits of each row value, so images that
+     * only hold 8-bit levels can still stream ARGB.
+     */
+    default int getMaxLevel() {
+        return 0xFF;
+    }
+
+    @FunctionalInterface
+    interface RowConsumer {
+        void accept(int z, int[] row) throws IOException;
+    }
+}
@@ -0,0 +1,62 @@
+package com.miir.atlas.world.gen.raster;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * a memory budget shared by every {@link LazyRaster}. once the decoded tiles outgrow it, cold tiles across all rasters
+ * are dropped until a quarter of the budget is free again.
+ * <p>
+ * tiles are picked with a clock: resident tiles sit in a ring in the order they were loaded, and every read marks its
+ * tile. eviction walks the ring from the oldest tile, giving marked tiles a second chance by clearing their mark and
+ * moving them to the back, and drops the first unmarked one. reads never take a lock.
+ */
+public class TileCache {
+    private final long budget;
+    private final AtomicLong resident = new AtomicLong();
+    // guarded by this; may still hold tiles dropped by a release racing a load, which are skipped once they come up
+    private final ArrayDeque<LazyRaster.Resident> ring = new ArrayDeque<>();
+
+    public TileCache(long budget) {
+        this.budget = budget;
+    }
+
+    synchronized void onLoad(LazyRaster.Resident tile) {
+        this.ring.addLast(tile);
+        if (this.resident.addAndGet(tile.getSizeInBytes()) > this.budget) {
+            this.evict();
+        }
+    }
+
+    // forgets the tiles of a raster that is dropping all of them
+    synchronized void onRelease(LazyRaster raster) {
+        this.ring.removeIf(tile -> tile.raster() == raster);
+    }
+
+    void onEvict(long bytes) {
+        this.resident.addAndGet(-bytes);
+    }
+
+    private void evict() {
+        long target = this.budget - this.budget / 4;
+        // every marked tile is passed over at most once, unless it is read again in the meantime
+        for (int steps = 2 * this.ring.size(); steps > 0 && this.resident.get() > target; steps--) {
+            LazyRaster.Resident tile = this.ring.pollFirst();
+            if (tile == null) break;
+            if (!tile.isResident()) continue;
+            if (tile.clearReferenced()) {
+                this.ring.addLast(tile);
+                continue;
+            }
+            tile.evict();
+        }
+    }
+
+    public long getResidentBytes() {
+        return this.resident.get();
+    }
+
+    public long getBudget() {
+        return this.budget;
+    }
+}
@@ -0,0 +1,76 @@
+package com.miir.atlas.world.gen;
+
+import net.minecraft.util.math.ChunkPos;
+import org.junit.jupiter.api.Test;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PregeneratorTest {
+    // a map whose chunks don't fill its last row and column of regions
+    private static final int MIN_X = -37, MIN_Z = 12, WIDTH = 70, HEIGHT = 45;
+
+    @Test
+    void visitsRegionsOneAtATime() {
+        Pregenerator.ChunkOrder order = new Pregenerator.ChunkOrder(MIN_X, MIN_Z, WIDTH, HEIGHT);
+        assertEquals(pos(0, 0), order.getChunk(0));
+        assertEquals(pos(1, 0), order.getChunk(1));
+        assertEquals(pos(0, 1), order.getChunk(32));
+        // the second region starts to the right of the first
+        assertEquals(pos(32, 0), order.getChunk(32 * 32));
+        // the third region is cut off by the map's edge
+        assertEquals(pos(64, 0), order.getChunk(2 * 32 * 32));
+        assertNull(order.getChunk(2 * 32 * 32 + 6));
+        // then the next row of regions
+        assertEquals(pos(0, 32), order.getChunk(3 * 32 * 32));
+    }
+
+    @Test
+    void visitsEveryChunkOnce() {
+        Pregenerator.ChunkOrder order = new Pregenerator.ChunkOrder(MIN_X, MIN_Z, WIDTH, HEIGHT);
+        Set<ChunkPos> seen = new HashSet<>();
+        int lastRegion = -1;
+        Set<Integer> finishedRegions = new HashSet<>();
+        for (long i = 0; i < order.getTotal(); i++) {
+            ChunkPos pos = order.getChunk(i);
+            if (pos == null) continue;
+            int x = pos.x - MIN_X, z = pos.z - MIN_Z;
+            assertTrue(x >= 0 && x < WIDTH && z >= 0 && z < HEIGHT, pos + " is off the map");
+            assertTrue(seen.add(pos), pos + " was visited twice");
+            int region = (z >> 5) * 3 + (x >> 5);
+            if (region != lastRegion) {
+                assertTrue(finishedRegions.add(lastRegion), "left region " + lastRegion + " twice");
+                lastRegion = region;
+            }
+        }
+        assertEquals(order.getChunkCount(), seen.size());
+        assertEquals((long) WIDTH * HEIGHT, order.getChunkCount());
+    }
+
+    @Test
+    void resumeCountsChunksBeforeIndex() {
+        Pregenerator.ChunkOrder order = new Pregenerator.ChunkOrder(MIN_X, MIN_Z, WIDTH, HEIGHT);
+        long visited = 0;
+        for (long i = 0; i < order.getTotal(); i++) {
+            assertEquals(visited, order.countBefore(i), "index " + i);
+            if (order.getChunk(i) != null) visited++;
+        }
+        assertEquals(order.getChunkCount(), order.countBefore(order.getTotal()));
+    }
+
+    @Test
+    void singleChunkMap() {
+        Pregenerator.ChunkOrder order = new Pregenerator.ChunkOrder(5, -5, 1, 1);
+        assertEquals(new ChunkPos(5, -5), order.getChunk(0));
+        assertNull(order.getChunk(1));
+        assertEquals(0, order.countBefore(0));
+        assertEquals(1, order.countBefore(1));
+        assertEquals(1, order.countBefore(order.getTotal()));
+    }
+
+    private static ChunkPos pos(int x, int z) {
+        return new ChunkPos(MIN_X + x, MIN_Z + z);
+    }
+}
@@ -0,0 +1,134 @@
+package com.miir.atlas.world.gen.chunk;
+
+import com.mojang.serialization.Lifecycle;
+import net.minecraft.Bootstrap;
+import net.minecraft.SharedConstants;
+import net.minecraft.block.BlockState;
+import net.minecraft.block.Blocks;
+import net.minecraft.registry.Registry;
+import net.minecraft.registry.RegistryKeys;
+import net.minecraft.registry.SimpleRegistry;
+import net.minecraft.util.math.BlockPos;
+import net.minecraft.util.math.ChunkPos;
+import net.minecraft.world.HeightLimitView;
+import net.minecraft.world.Heightmap;
+import net.minecraft.world.biome.Biome;
+import net.minecraft.world.biome.BiomeEffects;
+import net.minecraft.world.biome.BiomeKeys;
+import net.minecraft.world.biome.GenerationSettings;
+import net.minecraft.world.biome.SpawnSettings;
+import net.minecraft.world.chunk.Chunk;
+import net.minecraft.world.chunk.ChunkSection;
+import net.minecraft.world.chunk.ProtoChunk;
+import net.minecraft.world.chunk.UpgradeData;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ColumnSpansTest {
+    private static final BlockState STONE = Blocks.STONE.getDefaultState();
+    private static final BlockState WATER = Blocks.WATER.getDefaultState();
+    private static final BlockState AIR = Blocks.AIR.getDefaultState();
+    private static Registry<Biome> biomes;
+
+    @BeforeAll
+    static void bootstrap() {
+        SharedConstants.createGameVersion();
+        Bootstrap.initialize();
+        SimpleRegistry<Biome> registry = new SimpleRegistry<>(RegistryKeys.BIOME, Lifecycle.stable());
+        Registry.register(registry, BiomeKeys.PLAINS, new Biome.Builder()
+                .precipitation(Biome.Precipitation.NONE)
+                .temperature(0.5f)
+                .downfall(0.5f)
+                .effects(new BiomeEffects.Builder().skyColor(0).fogColor(0).waterColor(0).waterFogColor(0).build())
+                .spawnSettings(SpawnSettings.INSTANCE)
+                .generationSettings(GenerationSettings.INSTANCE)
+                .build());
+        biomes = registry;
+    }
+
+    private static Chunk createChunk() {
+        return new ProtoChunk(new ChunkPos(0, 0), UpgradeData.NO_UPGRADE_DATA, HeightLimitView.create(-64, 384), biomes, null);
+    }
+
+    @Test
+    void uniformSectionsAreReplacedWhole() {
+        Chunk chunk = createChunk();
+        ChunkSection[] before = chunk.getSectionArray().clone();
+        ColumnSpans spans = new ColumnSpans(1);
+        for (int i = 0; i < 256; i++) {
+            spans.add(i, -64, 8, STONE);
+        }
+        spans.write(chunk);
+        ChunkSection[] after = chunk.getSectionArray();
+        // y -64 to -1 is solid stone in every column
+        for (int index = chunk.getSectionIndex(-64); index <= chunk.getSectionIndex(-1); index++) {
+            assertNotSame(before[index], after[index], "section " + index);
+            assertEquals(STONE, after[index].getBlockState(7, 7, 7));
+        }
+        // y 0 to 15 holds the top of the stone and is written block by block
+        int mixed = chunk.getSectionIndex(0);
+        assertSame(before[mixed], after[mixed]);
+        assertEquals(STONE, chunk.getBlockState(new BlockPos(3, 7, 5)));
+        assertEquals(AIR, chunk.getBlockState(new BlockPos(3, 8, 5)));
+        // nothing above is touched
+        assertSame(before[mixed + 1], after[mixed + 1]);
+        assertTrue(after[mixed + 1].isEmpty());
+    }
+
+    @Test
+    void singleColumnKeepsSectionMixed() {
+        Chunk chunk = createChunk();
+        ColumnSpans spans = new ColumnSpans(1);
+        spans.add(ColumnCache.Columns.index(4, 9), -64, -40, STONE);
+        spans.write(chunk);
+        assertEquals(STONE, chunk.getBlockState(new BlockPos(4, -50, 9)));
+        assertEquals(AIR, chunk.getBlockState(new BlockPos(5, -50, 9)));
+        assertEquals(AIR, chunk.getBlockState(new BlockPos(4, -40, 9)));
+    }
+
+    @Test
+    void heightmapsFollowTerrainSeaAndRoof() {
+        Chunk chunk = createChunk();
+        ColumnSpans spans = new ColumnSpans(3);
+        int seaLevel = 16;
+        for (int i = 0; i < 256; i++) {
+            int elevation = 8 + (i & 15);
+            spans.add(i, -64, elevation, STONE);
+            spans.add(i, elevation, seaLevel, WATER);
+        }
+        // a roof over one column, between y 100 and 119
+        spans.add(ColumnCache.Columns.index(0, 0), 100, 120, STONE);
+        spans.write(chunk);
+        Heightmap surface = chunk.getHeightmap(Heightmap.Type.WORLD_SURFACE_WG);
+        Heightmap floor = chunk.getHeightmap(Heightmap.Type.OCEAN_FLOOR_WG);
+        for (int z = 0; z < 16; z++) {
+            for (int x = 0; x < 16; x++) {
+                if (x == 0 && z == 0) continue;
+                int elevation = 8 + x;
+                // heightmaps hold the y above the highest matching block
+                assertEquals(Math.max(elevation, seaLevel), surface.get(x, z), "surface at " + x + ", " + z);
+                assertEquals(elevation, floor.get(x, z), "ocean floor at " + x + ", " + z);
+            }
+        }
+        assertEquals(120, surface.get(0, 0));
+        assertEquals(120, floor.get(0, 0));
+    }
+
+    @Test
+    void cavesLowerTheHeightmaps() {
+        Chunk chunk = createChunk();
+        ColumnSpans spans = new ColumnSpans(2);
+        for (int i = 0; i < 256; i++) {
+            spans.add(i, -64, 40, STONE);
+        }
+        // a cave that breaks through the surface of one column
+        spans.add(ColumnCache.Columns.index(2, 3), 20, 45, AIR);
+        spans.write(chunk);
+        assertEquals(AIR, chunk.getBlockState(new BlockPos(2, 30, 3)));
+        assertEquals(20, chunk.getHeightmap(Heightmap.Type.WORLD_SURFACE_WG).get(2, 3));
+        assertEquals(20, chunk.getHeightmap(Heightmap.Type.OCEAN_FLOOR_WG).get(2, 3));
+        assertEquals(40, chunk.getHeightmap(Heightmap.Type.WORLD_SURFACE_WG).get(3, 3));
+    }
+}
@@ -0,0 +1,80 @@
+package com.miir.atlas.world.gen.raster;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MapSamplerTest {
+    private static final int WIDTH = 48;
+    private static final int HEIGHT = 34;
+
+    @Test
+    void unscaledMatchesFloatLerpExactly() {
+        MapRaster raster = randomRaster(0xFFFF, 1);
+        MapSampler sampler = new MapSampler(1);
+        float[] area = new float[80 * 60];
+        sampler.sample(raster, -40, -30, 80, 60, area);
+        for (int z = -30; z < 30; z++) {
+            for (int x = -40; x < 40; x++) {
+                float expected = lerp(raster, x, z, 1);
+                String at = "block " + x + ", " + z;
+                assertEquals(Float.floatToRawIntBits(expected), Float.floatToRawIntBits(sampler.sample(raster, x, z)), at);
+                assertEquals(Float.floatToRawIntBits(expected), Float.floatToRawIntBits(area[(z + 30) * 80 + x + 40]), at);
+            }
+        }
+    }
+
+    @Test
+    void scaledStaysCloseToFloatLerp() {
+        MapRaster raster = randomRaster(0xFF, 2);
+        for (float scale : new float[]{0.5f, 2, 3, 0.3f}) {
+            MapSampler sampler = new MapSampler(scale);
+            int minX = (int) Math.floor(-WIDTH / 2f * scale) - 4, minZ = (int) Math.floor(-HEIGHT / 2f * scale) - 4;
+            int sizeX = 2 * -minX, sizeZ = 2 * -minZ;
+            float[] area = new float[sizeX * sizeZ];
+            sampler.sample(raster, minX, minZ, sizeX, sizeZ, area);
+            for (int z = 0; z < sizeZ; z++) {
+                for (int x = 0; x < sizeX; x++) {
+                    float expected = lerp(raster, minX + x, minZ + z, scale);
+                    float point = sampler.sample(raster, minX + x, minZ + z);
+                    String at = "block " + (minX + x) + ", " + (minZ + z) + " at scale " + scale;
+                    // the row sampler and the point sampler share their fixed-point math
+                    assertEquals(Float.floatToRawIntBits(point), Float.floatToRawIntBits(area[z * sizeX + x]), at);
+                    if (expected == MapSampler.OUTSIDE) {
+                        assertEquals(MapSampler.OUTSIDE, point, at);
+                    } else {
+                        assertTrue(Math.abs(expected - point) < 0.01f, at + ": expected " + expected + ", got " + point);
+                    }
+                }
+            }
+        }
+    }
+
+    // the float interpolation the sampler replaced
+    private static float lerp(MapRaster raster, int x, int z, float horizontalScale) {
+        float xR = x / horizontalScale + raster.getWidth() / 2f;
+        float zR = z / horizontalScale + raster.getHeight() / 2f;
+        if (xR < 0 || zR < 0 || xR >= raster.getWidth() || zR >= raster.getHeight()) return -1;
+        int u0 = (int) Math.floor(xR), v0 = (int) Math.floor(zR);
+        float fu = xR - u0, fv = zR - v0;
+        int u1 = Math.min(raster.getWidth() - 1, u0 + 1), v1 = Math.min(v0 + 1, raster.getHeight() - 1);
+        double top = lerp(fu, raster.get(u0, v0), raster.get(u1, v0));
+        double bottom = lerp(fu, raster.get(u0, v1), raster.get(u1, v1));
+        return (float) lerp(fv, top, bottom);
+    }
+
+    private static double lerp(double delta, double start, double end) {
+        return start + delta * (end - start);
+    }
+
+    private static MapRaster randomRaster(int maxLevel, long seed) {
+        Random random = new Random(seed);
+        short[] data = new short[WIDTH * HEIGHT];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (short) random.nextInt(maxLevel + 1);
+        }
+        return new ShortRaster(WIDTH, HEIGHT, data);
+    }
+}
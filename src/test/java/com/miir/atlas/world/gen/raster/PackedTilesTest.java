@@ -0,0 +1,131 @@
+package com.miir.atlas.world.gen.raster;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.function.IntSupplier;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PackedTilesTest {
+    private static final int TILE_SIZE = 32;
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void grayscaleReadsBackEveryLevel() throws IOException {
+        Random random = new Random(1);
+        // noise barely compresses, so the tiles are written out past the 1 MiB buffer
+        int[][] rows = rows(1500, 800, () -> random.nextInt(0x100));
+        LazyRaster raster = this.pack(rows, false, 0xFF);
+        assertFalse(raster instanceof IndexedRaster);
+        assertPixels(rows, raster);
+        raster.close();
+    }
+
+    @Test
+    void sixteenBitGrayscaleKeepsItsLevels() throws IOException {
+        Random random = new Random(2);
+        int[][] rows = rows(100, 70, () -> random.nextInt(0x10000));
+        LazyRaster raster = this.pack(rows, false, 0xFFFF);
+        assertEquals(0xFFFF, raster.getMaxLevel());
+        assertPixels(rows, raster);
+        raster.close();
+    }
+
+    @Test
+    void fewColorsGetAPalette() throws IOException {
+        Random random = new Random(3);
+        int[][] rows = rows(100, 70, () -> random.nextInt(1000) * 0x1001);
+        LazyRaster raster = this.pack(rows, true, 0xFF);
+        LazyPaletteRaster palette = assertInstanceOf(LazyPaletteRaster.class, raster);
+        assertPixels(rows, raster);
+        for (int z = 0; z < rows.length; z++) {
+            for (int x = 0; x < rows[z].length; x++) {
+                assertEquals(rows[z][x], palette.getColor(palette.getIndex(x, z)));
+            }
+        }
+        raster.close();
+    }
+
+    @Test
+    void fallsBackToColorsPast65536Colors() throws IOException {
+        int width = 400, height = 200;
+        int[][] rows = rows(width, height, () -> 0);
+        for (int z = 0; z < height; z++) {
+            for (int x = 0; x < width; x++) {
+                rows[z][x] = (z * width + x) % 70000 * 199;
+            }
+        }
+        LazyRaster raster = this.pack(rows, true, 0xFF);
+        assertFalse(raster instanceof IndexedRaster);
+        assertPixels(rows, raster);
+        raster.close();
+    }
+
+    @Test
+    void staleFilesAreNotRead() throws IOException {
+        Random random = new Random(4);
+        int[][] rows = rows(100, 70, () -> random.nextInt(0x100));
+        Path file = this.directory.resolve("map.tiles");
+        byte[] digest = new byte[32];
+        random.nextBytes(digest);
+        PackedTiles.pack(new Rows(rows, 0xFF), false, TILE_SIZE, digest, file).close();
+        byte[] other = digest.clone();
+        other[0] ^= 1;
+        assertNull(PackedTiles.read(file, other, false, TILE_SIZE), "a different source image");
+        assertNull(PackedTiles.read(file, digest, true, TILE_SIZE), "a color map of the same image");
+        assertNull(PackedTiles.read(file, digest, false, 2 * TILE_SIZE), "a different tile size");
+        PackedTiles tiles = PackedTiles.read(file, digest, false, TILE_SIZE);
+        assertNotNull(tiles);
+        assertPixels(rows, new LazyRaster("map", tiles, new TileCache(1 << 20)));
+        tiles.close();
+    }
+
+    private LazyRaster pack(int[][] rows, boolean color, int maxLevel) throws IOException {
+        PackedTiles tiles = PackedTiles.pack(new Rows(rows, maxLevel), color, TILE_SIZE, new byte[32], this.directory.resolve("map.tiles"));
+        // a small budget, so tiles are evicted and read from the file again
+        TileCache cache = new TileCache(8L * TILE_SIZE * TILE_SIZE);
+        return tiles.hasPalette() ? new LazyPaletteRaster("map", tiles, cache) : new LazyRaster("map", tiles, cache);
+    }
+
+    private static int[][] rows(int width, int height, IntSupplier pixel) {
+        int[][] rows = new int[height][width];
+        for (int z = 0; z < height; z++) {
+            for (int x = 0; x < width; x++) {
+                rows[z][x] = pixel.getAsInt();
+            }
+        }
+        return rows;
+    }
+
+    private static void assertPixels(int[][] rows, MapRaster raster) {
+        assertEquals(rows[0].length, raster.getWidth());
+        assertEquals(rows.length, raster.getHeight());
+        for (int z = 0; z < rows.length; z++) {
+            for (int x = 0; x < rows[z].length; x++) {
+                assertEquals(rows[z][x], raster.get(x, z), "pixel " + x + ", " + z);
+            }
+        }
+    }
+
+    private record Rows(int[][] rows, int maxLevel) implements RowSource {
+        @Override
+        public int getWidth() {return this.rows[0].length;}
+        @Override
+        public int getHeight() {return this.rows.length;}
+        @Override
+        public int getMaxLevel() {return this.maxLevel;}
+
+        @Override
+        public void readRows(RowConsumer consumer) throws IOException {
+            for (int z = 0; z < this.rows.length; z++) {
+                consumer.accept(z, this.rows[z].clone());
+            }
+        }
+    }
+}
@@ -0,0 +1,108 @@
+package com.miir.atlas.world.gen.raster;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PaletteQuadtreeTest {
+    private static final int WIDTH = 300;
+    private static final int HEIGHT = 170;
+    private static final int COLORS = 150;
+
+    @Test
+    void findsTheNearestWantedPixel() {
+        PaletteRaster raster = randomMap(1);
+        PaletteQuadtree index = new PaletteQuadtree(raster);
+        Random random = new Random(2);
+        int rare = indexOf(raster.getPalette(), COLORS - 1);
+        for (int query = 0; query < 200; query++) {
+            int x = random.nextInt(WIDTH + 40) - 20, z = random.nextInt(HEIGHT + 40) - 20;
+            // entries past the first 64 live in the second mask plane
+            long[] wanted = random.nextBoolean() ? wanted(rare) : wanted(random.nextInt(COLORS), random.nextInt(COLORS));
+            int radius = random.nextBoolean() ? Math.max(WIDTH, HEIGHT) : random.nextInt(40);
+            long found = index.findNearest(x, z, wanted, radius);
+            long expected = bruteForce(raster, x, z, wanted, radius);
+            String at = "query " + query + " at " + x + ", " + z + " within " + radius;
+            if (expected == -1) {
+                assertEquals(-1, found, at);
+                continue;
+            }
+            assertNotEquals(-1, found, at);
+            int fx = (int) found, fz = (int) (found >> 32);
+            assertTrue(Math.abs(fx - x) <= radius && Math.abs(fz - z) <= radius, at + ": found " + fx + ", " + fz + " outside the radius");
+            assertTrue(isWanted(wanted, raster.getIndex(fx, fz)), at + ": found an unwanted pixel");
+            // ties may resolve to any of the closest pixels
+            assertEquals(distance(expected, x, z), distance(found, x, z), at);
+        }
+    }
+
+    @Test
+    void missingEntryIsNotFound() {
+        PaletteRaster raster = randomMap(3);
+        PaletteQuadtree index = new PaletteQuadtree(raster);
+        assertEquals(-1, index.findNearest(WIDTH / 2, HEIGHT / 2, wanted(COLORS + 5), WIDTH));
+    }
+
+    @Test
+    void exactPixelIsFoundAtDistanceZero() {
+        PaletteRaster raster = randomMap(4);
+        PaletteQuadtree index = new PaletteQuadtree(raster);
+        long found = index.findNearest(17, 23, wanted(raster.getIndex(17, 23)), 0);
+        assertEquals(23L << 32 | 17, found);
+    }
+
+    // colors are the numbers 0 to COLORS - 1, mostly common ones, with the last only in a handful of pixels
+    private static PaletteRaster randomMap(long seed) {
+        Random random = new Random(seed);
+        PaletteRaster.Builder builder = new PaletteRaster.Builder(WIDTH, HEIGHT);
+        int[] row = new int[WIDTH];
+        for (int z = 0; z < HEIGHT; z++) {
+            for (int x = 0; x < WIDTH; x++) {
+                row[x] = random.nextInt(1000) == 0 ? COLORS - 1 : random.nextInt(COLORS - 1);
+            }
+            builder.setRow(z, row);
+        }
+        return assertInstanceOf(PaletteRaster.class, builder.build());
+    }
+
+    private static long[] wanted(int... indices) {
+        long[] wanted = new long[(COLORS + 63) / 64 + 1];
+        for (int index : indices) {
+            wanted[index >> 6] |= 1L << index;
+        }
+        return wanted;
+    }
+
+    private static int indexOf(int[] palette, int color) {
+        for (int i = 0; i < palette.length; i++) {
+            if (palette[i] == color) return i;
+        }
+        throw new AssertionError("color " + color + " is not on the map");
+    }
+
+    private static boolean isWanted(long[] wanted, int index) {
+        return (index >> 6) < wanted.length && (wanted[index >> 6] & 1L << index) != 0;
+    }
+
+    private static long bruteForce(IndexedRaster raster, int x, int z, long[] wanted, int radius) {
+        long best = -1, bestDistance = Long.MAX_VALUE;
+        for (int pz = Math.max(0, z - radius); pz <= Math.min(raster.getHeight() - 1, z + radius); pz++) {
+            for (int px = Math.max(0, x - radius); px <= Math.min(raster.getWidth() - 1, x + radius); px++) {
+                if (!isWanted(wanted, raster.getIndex(px, pz))) continue;
+                long pixel = (long) pz << 32 | px;
+                if (distance(pixel, x, z) < bestDistance) {
+                    best = pixel;
+                    bestDistance = distance(pixel, x, z);
+                }
+            }
+        }
+        return best;
+    }
+
+    private static long distance(long pixel, int x, int z) {
+        long dx = (int) pixel - x, dz = (int) (pixel >> 32) - z;
+        return dx * dx + dz * dz;
+    }
+}
@@ -0,0 +1,69 @@
+package com.miir.atlas.world.gen.raster;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PaletteRasterBuilderTest {
+    @Test
+    void fewColorsKeepByteIndices() {
+        MapRaster raster = build(64, 32, 200);
+        PaletteRaster palette = assertInstanceOf(PaletteRaster.class, raster);
+        assertInstanceOf(ByteRaster.class, palette.getIndices());
+        assertEquals(200, palette.getPaletteSize());
+        assertPixels(raster, 200);
+    }
+
+    @Test
+    void widensToShortIndicesPast256Colors() {
+        // the 257th color turns up halfway down the map, after rows were already stored as bytes
+        MapRaster raster = build(64, 32, 1000);
+        PaletteRaster palette = assertInstanceOf(PaletteRaster.class, raster);
+        assertInstanceOf(ShortRaster.class, palette.getIndices());
+        assertEquals(1000, palette.getPaletteSize());
+        assertPixels(raster, 1000);
+    }
+
+    @Test
+    void fallsBackToColorsPast65536Colors() {
+        MapRaster raster = build(400, 200, 70000);
+        assertInstanceOf(IntRaster.class, raster);
+        assertPixels(raster, 70000);
+    }
+
+    @Test
+    void paletteKeepsFirstSeenOrder() {
+        PaletteRaster.Builder builder = new PaletteRaster.Builder(3, 2);
+        builder.setRow(0, new int[]{0x00FF00, 0x0000FF, 0x00FF00});
+        builder.setRow(1, new int[]{0xFF0000, 0x0000FF, 0x00FF00});
+        PaletteRaster raster = assertInstanceOf(PaletteRaster.class, builder.build());
+        assertArrayEquals(new int[]{0x00FF00, 0x0000FF, 0xFF0000}, raster.getPalette());
+        assertEquals(2, raster.getIndex(0, 1));
+        assertEquals(0x0000FF, raster.get(1, 1));
+    }
+
+    // a map whose pixels cycle through the given number of colors in row-major order
+    private static MapRaster build(int width, int height, int colors) {
+        PaletteRaster.Builder builder = new PaletteRaster.Builder(width, height);
+        int[] row = new int[width];
+        for (int z = 0; z < height; z++) {
+            for (int x = 0; x < width; x++) {
+                row[x] = color((z * width + x) % colors);
+            }
+            builder.setRow(z, row);
+        }
+        return builder.build();
+    }
+
+    private static void assertPixels(MapRaster raster, int colors) {
+        for (int z = 0; z < raster.getHeight(); z++) {
+            for (int x = 0; x < raster.getWidth(); x++) {
+                assertEquals(color((z * raster.getWidth() + x) % colors), raster.get(x, z), "pixel " + x + ", " + z);
+            }
+        }
+    }
+
+    private static int color(int i) {
+        return i * 0x9E3779 & 0xFFFFFF;
+    }
+}
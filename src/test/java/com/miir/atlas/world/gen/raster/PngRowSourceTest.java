@@ -0,0 +1,209 @@
+package com.miir.atlas.world.gen.raster;
+
+import org.junit.jupiter.api.Test;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.zip.CRC32;
+import java.util.zip.DeflaterOutputStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PngRowSourceTest {
+    private static final int GRAY = 0, RGB = 2, INDEXED = 3, GRAY_ALPHA = 4, RGBA = 6;
+
+    private final Random random = new Random(42);
+
+    @Test
+    void eightBitGrayMatchesImageIO() throws IOException {
+        assertMatchesImageIO(GRAY, 8);
+    }
+
+    @Test
+    void lowBitDepthGrayMatchesImageIO() throws IOException {
+        assertMatchesImageIO(GRAY, 1);
+        assertMatchesImageIO(GRAY, 2);
+        assertMatchesImageIO(GRAY, 4);
+    }
+
+    @Test
+    void colorMatchesImageIO() throws IOException {
+        assertMatchesImageIO(RGB, 8);
+        assertMatchesImageIO(RGBA, 8);
+        assertMatchesImageIO(GRAY_ALPHA, 8);
+    }
+
+    @Test
+    void indexedMatchesImageIO() throws IOException {
+        assertMatchesImageIO(INDEXED, 1);
+        assertMatchesImageIO(INDEXED, 2);
+        assertMatchesImageIO(INDEXED, 4);
+        assertMatchesImageIO(INDEXED, 8);
+    }
+
+    @Test
+    void sixteenBitGrayMatchesImageIOWithinALevel() throws IOException {
+        for (int colorType : new int[]{GRAY, GRAY_ALPHA}) {
+            byte[] png = this.encode(colorType, 16, 41, 27);
+            PngRowSource source = PngRowSource.open(png, true);
+            assertNotNull(source);
+            assertEquals(0xFFFF, source.getMaxLevel());
+            BufferedImage image = ImageIO.read(new ByteArrayInputStream(png));
+            source.readRows((z, row) -> {
+                for (int x = 0; x < source.getWidth(); x++) {
+                    float level = row[x] * 255f / 0xFFFF;
+                    int expected = image.getRGB(x, z) & 0xFF;
+                    assertTrue(Math.abs(level - expected) <= 1, "pixel " + x + ", " + z + ": expected " + expected + ", got " + level);
+                }
+            });
+        }
+    }
+
+    @Test
+    void sixteenBitGrayOnlyAddsPrecision() throws IOException {
+        // every 8-bit level, then the same levels widened to 16 bits
+        byte[][] narrow = new byte[2][256], wide = new byte[2][512];
+        for (int i = 0; i < 256; i++) {
+            narrow[0][i] = narrow[1][i] = (byte) i;
+            wide[0][2 * i] = wide[0][2 * i + 1] = wide[1][2 * i] = wide[1][2 * i + 1] = (byte) i;
+        }
+        int[] levels = new int[256];
+        PngRowSource eightBit = PngRowSource.open(this.encode(GRAY, 8, 256, narrow), true);
+        PngRowSource sixteenBit = PngRowSource.open(this.encode(GRAY, 16, 256, wide), true);
+        assertNotNull(eightBit);
+        assertNotNull(sixteenBit);
+        eightBit.readRows((z, row) -> {
+            for (int x = 0; x < 256; x++) levels[x] = row[x] & 0xFF;
+        });
+        int[] previous = {-1};
+        sixteenBit.readRows((z, row) -> {
+            for (int x = 0; x < 256; x++) {
+                assertTrue(Math.abs(row[x] * 255f / 0xFFFF - levels[x]) <= 0.5f, "level " + x + ": 8 bits give " + levels[x] + ", 16 bits " + row[x] * 255f / 0xFFFF);
+                if (z == 0) {
+                    assertTrue(row[x] > previous[0], "level " + x + " is not above the one before it");
+                    previous[0] = row[x];
+                }
+            }
+        });
+    }
+
+    @Test
+    void sixteenBitWithoutLevelsFallsBack() throws IOException {
+        assertNull(PngRowSource.open(this.encode(RGB, 16, 20, 10), false));
+        assertNull(PngRowSource.open(this.encode(GRAY, 16, 20, 10), false));
+    }
+
+    @Test
+    void oddSizesAreTrimmedToEven() throws IOException {
+        PngRowSource source = PngRowSource.open(this.encode(GRAY, 8, 41, 27), true);
+        assertNotNull(source);
+        assertEquals(40, source.getWidth());
+        assertEquals(26, source.getHeight());
+    }
+
+    private void assertMatchesImageIO(int colorType, int bitDepth) throws IOException {
+        byte[] png = this.encode(colorType, bitDepth, 37 + this.random.nextInt(20), 23 + this.random.nextInt(10));
+        BufferedImage image = ImageIO.read(new ByteArrayInputStream(png));
+        for (boolean levels : new boolean[]{false, true}) {
+            PngRowSource source = PngRowSource.open(png, levels);
+            assertNotNull(source, "color type " + colorType + " at " + bitDepth + " bits");
+            int[] rows = {0};
+            source.readRows((z, row) -> {
+                assertEquals(rows[0]++, z);
+                for (int x = 0; x < source.getWidth(); x++) {
+                    // maps only read the low 24 bits
+                    assertEquals(image.getRGB(x, z) & 0xFFFFFF, row[x] & 0xFFFFFF, "color type " + colorType + " at " + bitDepth + " bits, pixel " + x + ", " + z);
+                }
+            });
+            assertEquals(source.getHeight(), rows[0]);
+        }
+    }
+
+    private byte[] encode(int colorType, int bitDepth, int width, int height) throws IOException {
+        byte[][] rows = new byte[height][(width * channels(colorType) * bitDepth + 7) / 8];
+        for (byte[] row : rows) {
+            this.random.nextBytes(row);
+        }
+        return this.encode(colorType, bitDepth, width, rows);
+    }
+
+    // row z is filtered by filter type z % 5 and the image data is split over several IDAT chunks
+    private byte[] encode(int colorType, int bitDepth, int width, byte[][] rows) throws IOException {
+        int height = rows.length;
+        int rowBytes = rows[0].length;
+        int stride = Math.max(1, channels(colorType) * bitDepth / 8);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeLong(0x89504E470D0A1A0AL);
+        ByteArrayOutputStream header = new ByteArrayOutputStream();
+        DataOutputStream headerOut = new DataOutputStream(header);
+        headerOut.writeInt(width);
+        headerOut.writeInt(height);
+        headerOut.write(new byte[]{(byte) bitDepth, (byte) colorType, 0, 0, 0});
+        writeChunk(out, "IHDR", header.toByteArray());
+        if (colorType == INDEXED) {
+            byte[] palette = new byte[3 << bitDepth];
+            this.random.nextBytes(palette);
+            writeChunk(out, "PLTE", palette);
+        }
+        ByteArrayOutputStream filtered = new ByteArrayOutputStream();
+        byte[] previous = new byte[rowBytes];
+        for (int z = 0; z < height; z++) {
+            byte[] row = rows[z];
+            int filter = z % 5;
+            filtered.write(filter);
+            for (int i = 0; i < rowBytes; i++) {
+                int a = i >= stride ? row[i - stride] & 0xFF : 0, b = previous[i] & 0xFF, c = i >= stride ? previous[i - stride] & 0xFF : 0;
+                int predicted = switch (filter) {
+                    case 0 -> 0;
+                    case 1 -> a;
+                    case 2 -> b;
+                    case 3 -> (a + b) >> 1;
+                    default -> {
+                        int p = a + b - c, pa = Math.abs(p - a), pb = Math.abs(p - b), pc = Math.abs(p - c);
+                        yield pa <= pb && pa <= pc ? a : pb <= pc ? b : c;
+                    }
+                };
+                filtered.write(row[i] - predicted);
+            }
+            previous = row;
+        }
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        try (DeflaterOutputStream deflater = new DeflaterOutputStream(compressed)) {
+            deflater.write(filtered.toByteArray());
+        }
+        byte[] data = compressed.toByteArray();
+        for (int i = 0; i < data.length; i += 1000) {
+            writeChunk(out, "IDAT", Arrays.copyOfRange(data, i, Math.min(data.length, i + 1000)));
+        }
+        writeChunk(out, "IEND", new byte[0]);
+        return bytes.toByteArray();
+    }
+
+    private static int channels(int colorType) {
+        return switch (colorType) {
+            case RGB -> 3;
+            case GRAY_ALPHA -> 2;
+            case RGBA -> 4;
+            default -> 1;
+        };
+    }
+
+    private static void writeChunk(DataOutputStream out, String type, byte[] data) throws IOException {
+        byte[] name = type.getBytes(StandardCharsets.US_ASCII);
+        out.writeInt(data.length);
+        out.write(name);
+        out.write(data);
+        CRC32 crc = new CRC32();
+        crc.update(name);
+        crc.update(data);
+        out.writeInt((int) crc.getValue());
+    }
+}
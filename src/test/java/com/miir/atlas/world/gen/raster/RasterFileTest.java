@@ -0,0 +1,133 @@
+package com.miir.atlas.world.gen.raster;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class RasterFileTest {
+    private static final int WIDTH = 90;
+    private static final int HEIGHT = 64;
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void roundTripsEveryKind() throws IOException {
+        Random random = new Random(1);
+        MapRaster[] rasters = {
+                new ByteRaster(WIDTH, HEIGHT, bytes(random, WIDTH * HEIGHT)),
+                new ShortRaster(WIDTH, HEIGHT, shorts(random, WIDTH * HEIGHT)),
+                new IntRaster(WIDTH, HEIGHT, ints(random, WIDTH * HEIGHT)),
+                new PaletteRaster(new ByteRaster(WIDTH, HEIGHT, bytes(random, WIDTH * HEIGHT)), ints(random, 256)),
+                new PaletteRaster(new ShortRaster(WIDTH, HEIGHT, shorts(random, WIDTH * HEIGHT)), ints(random, 0x10000))
+        };
+        for (int i = 0; i < rasters.length; i++) {
+            boolean color = rasters[i] instanceof PaletteRaster || rasters[i] instanceof IntRaster;
+            Path file = this.directory.resolve("raster" + i + ".bin");
+            byte[] digest = digest(random);
+            RasterFile.write(rasters[i], color, digest, file);
+            assertSameRaster(rasters[i], RasterFile.read(file, digest, color));
+        }
+    }
+
+    @Test
+    void roundTripsRastersLargerThanOneChunk() throws IOException {
+        Random random = new Random(2);
+        // either is well past the 1 MiB read and write chunks
+        int width = 1030, height = 1100;
+        MapRaster[] rasters = {
+                new ByteRaster(width, height, bytes(random, width * height)),
+                new ShortRaster(width, height, shorts(random, width * height))
+        };
+        for (int i = 0; i < rasters.length; i++) {
+            Path file = this.directory.resolve("large" + i + ".bin");
+            byte[] digest = digest(random);
+            RasterFile.write(rasters[i], false, digest, file);
+            assertSameRaster(rasters[i], RasterFile.read(file, digest, false));
+        }
+    }
+
+    @Test
+    void staleFilesAreNotRead() throws IOException {
+        Random random = new Random(3);
+        MapRaster raster = new ByteRaster(WIDTH, HEIGHT, bytes(random, WIDTH * HEIGHT));
+        Path file = this.directory.resolve("raster.bin");
+        byte[] digest = digest(random);
+        RasterFile.write(raster, false, digest, file);
+        byte[] other = digest.clone();
+        other[other.length - 1] ^= 1;
+        assertNull(RasterFile.read(file, other, false), "a different source image");
+        assertNull(RasterFile.read(file, digest, true), "a color map of the same image");
+        assertNull(RasterFile.read(this.directory.resolve("missing.bin"), digest, false), "a missing file");
+        assertNotNull(RasterFile.read(file, digest, false));
+    }
+
+    @Test
+    void rejectsUnknownRasters() {
+        MapRaster raster = new ColumnRaster();
+        assertThrows(IllegalArgumentException.class, () -> RasterFile.write(raster, false, new byte[32], this.directory.resolve("column.bin")));
+    }
+
+    private static void assertSameRaster(MapRaster expected, MapRaster actual) {
+        assertNotNull(actual);
+        assertEquals(expected.getClass(), actual.getClass());
+        if (expected instanceof PaletteRaster palette) {
+            assertArrayEquals(palette.getPalette(), ((PaletteRaster) actual).getPalette());
+            assertEquals(palette.getIndices().getClass(), ((PaletteRaster) actual).getIndices().getClass());
+        }
+        assertEquals(expected.getWidth(), actual.getWidth());
+        assertEquals(expected.getHeight(), actual.getHeight());
+        int[] expectedRow = new int[expected.getWidth()], actualRow = new int[expected.getWidth()];
+        for (int z = 0; z < expected.getHeight(); z++) {
+            expected.getRow(0, z, expectedRow.length, expectedRow);
+            actual.getRow(0, z, actualRow.length, actualRow);
+            assertArrayEquals(expectedRow, actualRow, "row " + z);
+        }
+    }
+
+    private static byte[] digest(Random random) {
+        return bytes(random, 32);
+    }
+
+    private static byte[] bytes(Random random, int length) {
+        byte[] data = new byte[length];
+        random.nextBytes(data);
+        return data;
+    }
+
+    private static short[] shorts(Random random, int length) {
+        short[] data = new short[length];
+        for (int i = 0; i < length; i++) {
+            data[i] = (short) random.nextInt(0x10000);
+        }
+        return data;
+    }
+
+    private static int[] ints(Random random, int length) {
+        int[] data = new int[length];
+        for (int i = 0; i < length; i++) {
+            data[i] = random.nextInt();
+        }
+        return data;
+    }
+
+    // any raster RasterFile doesn't know how to lay out
+    private static class ColumnRaster implements MapRaster {
+        @Override
+        public int get(int x, int z) {return x;}
+
+        @Override
+        public int getWidth() {return WIDTH;}
+
+        @Override
+        public int getHeight() {return HEIGHT;}
+
+        @Override
+        public long getSizeInBytes() {return 0;}
+    }
+}